@@ -0,0 +1,533 @@
+package gitlet;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Micro benchmarks for the storage and history code, run as
+ *      java gitlet.Benchmark NAME [SIZE]
+ *  Each benchmark builds its own synthetic data, so no repository is needed.
+ *
+ *  merge-base [COMMITS]: merge bases of branch tips on a history of COMMITS commits
+ *      (default 1000000) with four long-lived branches that keep merging into each
+ *      other, comparing the paint-down walk of MergeBase against marking every
+ *      ancestor of one side.
+ *
+ *  delta [LINES]: stores 100 revisions of a config file of LINES lines (default 20000)
+ *      where each revision changes a few lines, as deltas against the previous revision,
+ *      and compares their size with storing every revision whole.
+ *
+ *  compression [FILES]: writes FILES (default 500) text files of about 64KB as raw
+ *      objects and as DEFLATE objects in a temporary folder, then checks each of them
+ *      out into a file the way ObjectStore.copyTo does, comparing disk use and read time.
+ *
+ *  daemon [COMMANDS]: in a temporary repository, times COMMANDS (default 20) runs of
+ *      "status" and "log" each as a new JVM, as a new JVM that forwards to a daemon,
+ *      and as requests sent straight to the daemon socket.
+ *
+ *  checkout [FILES]: stores FILES (default 2000) files of 32KB as blobs of a temporary
+ *      repository and times checking all of them out into an empty folder with 1, 2, 4, 8
+ *      and 16 workers.
+ *
+ *  bitmaps [COMMITS]: writes a history of COMMITS commits (default 5000) over 1000 files
+ *      in 50 folders, each commit changing three files, into a temporary repository and
+ *      writes its reachability bitmaps. Then lists the objects reachable from the tip, and
+ *      the objects of the tip that ten commits back does not have (what a push sends),
+ *      once by walking every commit the way Remote collects objects and once with Bitmaps.
+ *
+ *  merge [LINES]: three-way merges of a file of LINES lines (default 200000) where each
+ *      side changes one line in a hundred, never the same one, so the merge is clean,
+ *      and of three unrelated versions drawn from a few repeated lines, the case where
+ *      the diff search has to give up early.
+ *
+ *  @author Medhaav Chandra Mahesh
+ */
+public class Benchmark {
+
+    private static final int QUERIES = 200;
+
+    public static void main(String... args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Benchmark NAME [SIZE]");
+            return;
+        }
+        switch (args[0]) {
+            case "merge-base":
+                mergeBase(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+                break;
+            case "compression":
+                compression(args.length > 1 ? Integer.parseInt(args[1]) : 500);
+                break;
+            case "daemon":
+                daemon(args.length > 1 ? Integer.parseInt(args[1]) : 20);
+                break;
+            case "checkout":
+                checkout(args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+                break;
+            case "bitmaps":
+                bitmaps(args.length > 1 ? Integer.parseInt(args[1]) : 5000);
+                break;
+            case "delta":
+                delta(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+                break;
+            case "merge":
+                merge(args.length > 1 ? Integer.parseInt(args[1]) : 200000);
+                break;
+            default:
+                System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    //* builds a history where each commit extends one of four branches and one in
+    // fifty also merges the tip of another branch/
+    static CommitGraph syntheticHistory(int n, int[] tips, Random random) {
+        int[] parents = new int[2 * n];
+        parents[0] = CommitGraph.NONE;
+        parents[1] = CommitGraph.NONE;
+        for (int i = 1; i < n; i += 1) {
+            int branch = random.nextInt(tips.length);
+            parents[2 * i] = tips[branch];
+            parents[2 * i + 1] = CommitGraph.NONE;
+            if (random.nextInt(50) == 0) {
+                int other = random.nextInt(tips.length);
+                if (tips[other] != tips[branch]) {
+                    parents[2 * i + 1] = tips[other];
+                }
+            }
+            tips[branch] = i;
+        }
+        return CommitGraph.of(parents, n);
+    }
+
+    private static void mergeBase(int n) {
+        Random random = new Random(61);
+        long start = System.nanoTime();
+        int[] tips = new int[4];
+        CommitGraph graph = syntheticHistory(n, tips, random);
+        System.out.printf("built %d commits in %d ms%n", n, (System.nanoTime() - start) / 1000000);
+
+        int[][] pairs = new int[QUERIES][2];
+        for (int q = 0; q < QUERIES; q += 1) {
+            int a = tips[q % tips.length];
+            int b = tips[(q + 1) % tips.length];
+            pairs[q][0] = Math.max(0, a - random.nextInt(1000));
+            pairs[q][1] = Math.max(0, b - random.nextInt(1000));
+        }
+
+        MergeBase service = new MergeBase(graph);
+        int[] paintDown = new int[QUERIES];
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q += 1) {
+            List<Integer> bases = service.bases(pairs[q][0], pairs[q][1]);
+            paintDown[q] = bases.isEmpty() ? CommitGraph.NONE : bases.get(0);
+        }
+        long paintTime = System.nanoTime() - start;
+
+        int mismatches = 0;
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q += 1) {
+            int base = markAllAncestors(graph, pairs[q][0], pairs[q][1]);
+            if (graph.generation(base) != graph.generation(paintDown[q])) {
+                mismatches += 1;
+            }
+        }
+        long markTime = System.nanoTime() - start;
+
+        System.out.printf("paint-down:          %8.3f ms/query%n", paintTime / 1e6 / QUERIES);
+        System.out.printf("mark all ancestors:  %8.3f ms/query%n", markTime / 1e6 / QUERIES);
+        System.out.printf("answers that differ: %d%n", mismatches);
+    }
+
+    private static void delta(int lines) {
+        Random random = new Random(12);
+        String[] values = new String[lines];
+        for (int i = 0; i < lines; i += 1) {
+            values[i] = "setting." + i + " = " + random.nextInt(1000000);
+        }
+        byte[] previous = String.join("\n", values).getBytes(StandardCharsets.UTF_8);
+        long whole = 0;
+        long stored = 0;
+        long createTime = 0;
+        long applyTime = 0;
+        for (int revision = 0; revision < 100; revision += 1) {
+            for (int edit = 0; edit < 5; edit += 1) {
+                int line = random.nextInt(lines);
+                values[line] = "setting." + line + " = " + random.nextInt(1000000);
+            }
+            byte[] next = String.join("\n", values).getBytes(StandardCharsets.UTF_8);
+            long start = System.nanoTime();
+            byte[] delta = Delta.create(previous, next, next.length / 2);
+            createTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            byte[] rebuilt = Delta.apply(ByteBuffer.wrap(previous), ByteBuffer.wrap(delta));
+            applyTime += System.nanoTime() - start;
+            if (!Arrays.equals(rebuilt, next)) {
+                System.out.println("delta does not rebuild revision " + revision);
+                return;
+            }
+            whole += next.length;
+            stored += delta.length;
+            previous = next;
+        }
+        System.out.printf("whole revisions: %10d bytes%n", whole);
+        System.out.printf("deltas:          %10d bytes%n", stored);
+        System.out.printf("create:          %8.3f ms/revision%n", createTime / 1e6 / 100);
+        System.out.printf("apply:           %8.3f ms/revision%n", applyTime / 1e6 / 100);
+    }
+
+    private static void merge(int lines) {
+        Random random = new Random(25);
+        StringBuilder base = new StringBuilder();
+        StringBuilder ours = new StringBuilder();
+        StringBuilder theirs = new StringBuilder();
+        StringBuilder[] repeated = {new StringBuilder(), new StringBuilder(),
+            new StringBuilder()};
+        for (int i = 0; i < lines; i += 1) {
+            String line = "    value" + i + " = compute(" + random.nextInt(1000) + ");\n";
+            base.append(line);
+            ours.append(i % 100 == 0 ? "    changed(" + i + ");\n" : line);
+            theirs.append(i % 100 == 50 ? "    changed(" + i + ");\n" : line);
+            for (StringBuilder version : repeated) {
+                version.append("}\n{\n".charAt(random.nextInt(4))).append('\n');
+            }
+        }
+        ByteBuffer[][] cases = {{bytes(base), bytes(ours), bytes(theirs)},
+            {bytes(repeated[0]), bytes(repeated[1]), bytes(repeated[2])}};
+        String[] names = {"clean merge", "repeated lines"};
+        for (int c = 0; c < cases.length; c += 1) {
+            long best = Long.MAX_VALUE;
+            boolean conflict = false;
+            int parts = 0;
+            for (int run = 0; run < 5; run += 1) {
+                List<ByteBuffer> merged = new ArrayList<>();
+                long start = System.nanoTime();
+                conflict = Merge.merge3(cases[c][0], cases[c][1], cases[c][2], merged);
+                best = Math.min(best, System.nanoTime() - start);
+                parts = merged.size();
+            }
+            System.out.printf("%-15s %8.1f ms  %6d parts  %s%n", names[c] + ":", best / 1e6,
+                    parts, conflict ? "conflict" : "no conflict");
+        }
+    }
+
+    private static ByteBuffer bytes(StringBuilder text) {
+        return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void compression(int files) {
+        Random random = new Random(13);
+        try {
+            Path folder = Files.createTempDirectory("gitlet-bench");
+            File target = folder.resolve("checkout").toFile();
+            File[] raw = new File[files];
+            File[] deflated = new File[files];
+            long rawSize = 0;
+            long deflatedSize = 0;
+            for (int i = 0; i < files; i += 1) {
+                StringBuilder text = new StringBuilder();
+                while (text.length() < 1 << 16) {
+                    text.append("entry.").append(random.nextInt(5000)).append(" = ")
+                            .append(random.nextInt(100)).append(" # note ")
+                            .append(random.nextInt(40)).append('\n');
+                }
+                byte[] contents = text.toString().getBytes(StandardCharsets.UTF_8);
+                raw[i] = folder.resolve("raw-" + i).toFile();
+                deflated[i] = folder.resolve("deflate-" + i).toFile();
+                Files.write(raw[i].toPath(), contents);
+                Files.write(deflated[i].toPath(), Codec.DEFLATE.encode(contents));
+                rawSize += raw[i].length();
+                deflatedSize += deflated[i].length();
+            }
+            long rawTime = 0;
+            long deflateTime = 0;
+            for (int round = 0; round < 3; round += 1) {
+                for (int i = 0; i < files; i += 1) {
+                    long start = System.nanoTime();
+                    try (FileChannel out = FileChannel.open(target.toPath(),
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                         FileChannel in = FileChannel.open(raw[i].toPath())) {
+                        long done = 0;
+                        while (done < in.size()) {
+                            done += in.transferTo(done, in.size() - done, out);
+                        }
+                    }
+                    rawTime += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    try (FileChannel out = FileChannel.open(target.toPath(),
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                        Codec.decode(ObjectStore.mapFile(deflated[i]), out);
+                    }
+                    deflateTime += System.nanoTime() - start;
+                }
+            }
+            for (int i = 0; i < files; i += 1) {
+                raw[i].delete();
+                deflated[i].delete();
+            }
+            target.delete();
+            folder.toFile().delete();
+            System.out.printf("raw:     %10d bytes, %8.3f ms/checkout%n", rawSize,
+                    rawTime / 1e6 / files / 3);
+            System.out.printf("deflate: %10d bytes, %8.3f ms/checkout%n", deflatedSize,
+                    deflateTime / 1e6 / files / 3);
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+    }
+
+    private static void daemon(int commands) {
+        try {
+            File repo = Files.createTempDirectory("gitlet-bench").toFile();
+            runGitlet(repo, "init");
+            for (int i = 0; i < 20; i += 1) {
+                Files.writeString(new File(repo, "file" + i + ".txt").toPath(), "version " + i);
+                runGitlet(repo, "add", "file" + i + ".txt");
+                runGitlet(repo, "commit", "commit " + i);
+            }
+            String[][] workload = {{"status"}, {"log"}};
+            long start = System.nanoTime();
+            for (int i = 0; i < commands; i += 1) {
+                for (String[] command : workload) {
+                    runGitlet(repo, command);
+                }
+            }
+            long plain = System.nanoTime() - start;
+
+            Process daemon = gitlet(repo, "daemon").start();
+            File socket = new File(new File(repo, ".gitlet"), Daemon.SOCKET_FILE);
+            while (!socket.exists()) {
+                Thread.sleep(10);
+            }
+            for (String[] command : workload) {
+                Daemon.request(socket, repo.getPath(), command, OutputStream.nullOutputStream());
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < commands; i += 1) {
+                for (String[] command : workload) {
+                    runGitlet(repo, command);
+                }
+            }
+            long forwarded = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < commands; i += 1) {
+                for (String[] command : workload) {
+                    Daemon.request(socket, repo.getPath(), command,
+                            OutputStream.nullOutputStream());
+                }
+            }
+            long direct = System.nanoTime() - start;
+            runGitlet(repo, "daemon", "--stop");
+            daemon.waitFor();
+            deleteTree(repo);
+
+            int total = commands * workload.length;
+            System.out.printf("new JVM:              %8.3f ms/command%n", plain / 1e6 / total);
+            System.out.printf("new JVM + daemon:     %8.3f ms/command%n", forwarded / 1e6 / total);
+            System.out.printf("daemon socket only:   %8.3f ms/command%n", direct / 1e6 / total);
+        } catch (IOException | InterruptedException e) {
+            System.out.println("io error");
+        }
+    }
+
+    private static void bitmaps(int commits) {
+        Random random = new Random(20);
+        try {
+            File repo = Files.createTempDirectory("gitlet-bench").toFile();
+            File gitDir = join(repo, ".gitlet");
+            File other = join(repo, "other");
+            join(gitDir, "branches").mkdirs();
+            String[][] files = new String[50][20];
+            String[] folders = new String[50];
+            for (int d = 0; d < 50; d += 1) {
+                for (int f = 0; f < 20; f += 1) {
+                    files[d][f] = benchmarkBlob(gitDir, d + "/" + f + " 0");
+                }
+                folders[d] = benchmarkTree(gitDir, files[d]);
+            }
+            String[] tips = new String[commits];
+            String tip = null;
+            for (int i = 0; i < commits; i += 1) {
+                for (int change = 0; change < 3; change += 1) {
+                    int d = random.nextInt(50);
+                    int f = random.nextInt(20);
+                    files[d][f] = benchmarkBlob(gitDir, d + "/" + f + " " + i);
+                    folders[d] = benchmarkTree(gitDir, files[d]);
+                }
+                Tree root = new Tree();
+                for (int d = 0; d < 50; d += 1) {
+                    root.getTrees().put("folder" + d, folders[d]);
+                }
+                String treeId = root.save(gitDir);
+                Commit c = i % 25 == 24
+                        ? new Commit("merge " + i, tip, tips[i - 2], treeId)
+                        : new Commit("commit " + i, i < 2 ? tip : tips[i - 2], treeId);
+                ObjectStore.write(gitDir, ObjectStore.COMMITS, c.getId(), c.encode());
+                tip = c.getId();
+                tips[i] = tip;
+            }
+            writeObject(join(gitDir, "branches", "master"), tip);
+            long start = System.nanoTime();
+            CommitGraph.write(gitDir);
+            Bitmaps.write(gitDir);
+            long writeTime = System.nanoTime() - start;
+            CommitGraph graph = CommitGraph.load(gitDir);
+            int head = graph.find(tip);
+            int pushed = graph.find(tips[commits - 11]);
+
+            Commit.clearCache();
+            start = System.nanoTime();
+            int naiveAll = walkObjects(graph, head, gitDir, other).size();
+            LinkedHashSet<String> naiveDiff = walkObjects(graph, head, gitDir, other);
+            naiveDiff.removeAll(walkObjects(graph, pushed, gitDir, other));
+            long naiveTime = System.nanoTime() - start;
+
+            Commit.clearCache();
+            Bitmaps.unload(gitDir);
+            start = System.nanoTime();
+            Bitmaps bitmaps = Bitmaps.load(gitDir);
+            int bitmapAll = bitmaps.reachable(head).cardinality();
+            BitSet bitmapDiff = bitmaps.reachable(head);
+            bitmapDiff.andNot(bitmaps.reachable(pushed));
+            long bitmapTime = System.nanoTime() - start;
+
+            boolean same = naiveAll == bitmapAll
+                    && naiveDiff.equals(new LinkedHashSet<>(bitmaps.objects(bitmapDiff)));
+            System.out.printf("objects: %d reachable, %d new in the last ten commits%n",
+                    bitmapAll, bitmapDiff.cardinality());
+            System.out.printf("bitmap file:        %10d bytes, written in %8.3f ms%n",
+                    join(gitDir, Bitmaps.BITMAP_FILE).length(), writeTime / 1e6);
+            System.out.printf("walk every commit:  %8.3f ms%n", naiveTime / 1e6);
+            System.out.printf("bitmaps:            %8.3f ms%n", bitmapTime / 1e6);
+            System.out.printf("answers that differ: %s%n", same ? "none" : "some");
+            deleteTree(repo);
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+    }
+
+    private static void checkout(int files) {
+        Random random = new Random(22);
+        try {
+            File repo = Files.createTempDirectory("gitlet-bench").toFile();
+            File gitDir = join(repo, ".gitlet");
+            String[] paths = new String[files];
+            String[] blobs = new String[files];
+            byte[] contents = new byte[1 << 15];
+            for (int i = 0; i < files; i += 1) {
+                random.nextBytes(contents);
+                paths[i] = "folder" + i % 50 + "/file" + i + ".bin";
+                blobs[i] = sha1(contents);
+                ObjectStore.write(gitDir, ObjectStore.BLOBS, blobs[i], contents);
+            }
+            for (int threads = 1; threads <= 16; threads *= 2) {
+                File root = join(repo, "checkout");
+                long start = System.nanoTime();
+                Checkout.write(gitDir, root, paths, blobs, null, threads);
+                long time = System.nanoTime() - start;
+                System.out.printf("%2d workers: %8.3f ms%n", threads, time / 1e6);
+                deleteTree(root);
+            }
+            deleteTree(repo);
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+    }
+
+    private static String benchmarkBlob(File gitDir, String contents) {
+        byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+        String id = sha1(bytes);
+        ObjectStore.write(gitDir, ObjectStore.BLOBS, id, bytes);
+        return id;
+    }
+
+    private static String benchmarkTree(File gitDir, String[] blobs) {
+        Tree tree = new Tree();
+        for (int f = 0; f < blobs.length; f += 1) {
+            tree.getBlobs().put("file" + f + ".txt", blobs[f]);
+        }
+        return tree.save(gitDir);
+    }
+
+    //* every object reachable from the commit, collected the way Remote does: each
+    // ancestor is read and its tree walked, skipping trees already collected/
+    private static LinkedHashSet<String> walkObjects(CommitGraph graph, int commit,
+                                                     File gitDir, File other) {
+        LinkedHashSet<String> objects = new LinkedHashSet<>();
+        BitSet ancestors = graph.ancestors(commit);
+        for (int i = ancestors.nextSetBit(0); i >= 0; i = ancestors.nextSetBit(i + 1)) {
+            Remote.addObjects(Commit.read(gitDir, graph.id(i)), gitDir, other, objects);
+        }
+        return objects;
+    }
+
+    private static ProcessBuilder gitlet(File repo, String... args) {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String[] command = new String[args.length + 4];
+        command[0] = java;
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = "gitlet.Main";
+        System.arraycopy(args, 0, command, 4, args.length);
+        return new ProcessBuilder(command).directory(repo)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+    }
+
+    private static void runGitlet(File repo, String... args)
+            throws IOException, InterruptedException {
+        gitlet(repo, args).start().waitFor();
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+
+    //* the walk Merge used before MergeBase: mark every ancestor of a, then search down
+    // from b by generation for the first marked commit/
+    private static int markAllAncestors(CommitGraph graph, int a, int b) {
+        BitSet ancestors = graph.ancestors(a);
+        BitSet seen = new BitSet(graph.size());
+        PriorityQueue<Integer> fringe = new PriorityQueue<>(
+                (x, y) -> Integer.compare(graph.generation(y), graph.generation(x)));
+        fringe.add(b);
+        seen.set(b);
+        while (!fringe.isEmpty()) {
+            int v = fringe.remove();
+            if (ancestors.get(v)) {
+                return v;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int p = graph.parent(v, which);
+                if (p != CommitGraph.NONE && !seen.get(p)) {
+                    seen.set(p);
+                    fringe.add(p);
+                }
+            }
+        }
+        return CommitGraph.NONE;
+    }
+}
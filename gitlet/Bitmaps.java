@@ -0,0 +1,373 @@
+package gitlet;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * Reachability bitmaps of the trees and blobs of a repository
+ * Every tree, blob and delta gets a position in an object index, and the set of objects
+ * reachable from a commit (its tree and the trees of all of its ancestors, with every
+ * blob below them and the bases of their deltas) is a bitmap over those positions.
+ * gc writes the index and the bitmaps of the branch tips and of one commit in SAMPLE
+ * generations to .gitlet/bitmaps. The set of any other commit is the union of the
+ * bitmaps of the nearest commits below it that have one, plus the trees of the few
+ * commits in between, so "objects in A but not in B" is a walk of the new commits and
+ * an andNot, instead of reading every commit of both histories.
+ *
+ * Bitmaps are stored compressed as runs of words (EWAH): a marker word holds whether
+ * the run is of empty or full words, the length of the run and how many literal words
+ * follow it. Objects are numbered oldest first, so old history is a long run of ones.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Bitmaps {
+
+    static final String BITMAP_FILE = "bitmaps";
+    private static final int MAGIC = 0x47424d50;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /**
+     * Besides the branch tips, commits whose generation is a multiple of SAMPLE get a bitmap
+     */
+    private static final int SAMPLE = 100;
+    /**
+     * Parts of a marker word: the run is of full words, its length, the literal count
+     */
+    private static final long FULL_RUN = 1L << 63;
+    private static final int MAX_RUN = Integer.MAX_VALUE;
+
+    private static final HashMap<File, Bitmaps> LOADED = new HashMap<>();
+
+    private final File gitDir;
+    /**
+     * KIND/ID of the object at each position, and the position of each object
+     */
+    private final ArrayList<String> objects = new ArrayList<>();
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    /**
+     * Bitmaps of the commits that have one, by commit id
+     */
+    private final HashMap<String, BitSet> bitmaps = new HashMap<>();
+
+    private Bitmaps(File gitDir) {
+        this.gitDir = gitDir;
+    }
+
+    public static synchronized Bitmaps load(File gitDir) {
+        Bitmaps index = LOADED.get(gitDir);
+        if (index == null) {
+            index = read(gitDir);
+            LOADED.put(gitDir, index);
+        }
+        return index;
+    }
+
+    //* the repositories whose bitmaps are loaded/
+    static synchronized Set<File> loaded() {
+        return new HashSet<>(LOADED.keySet());
+    }
+
+    //* forgets the bitmaps of that repository, so they are read again on the next load/
+    static synchronized void unload(File gitDir) {
+        LOADED.remove(gitDir);
+    }
+
+    private static Bitmaps read(File gitDir) {
+        Bitmaps index = new Bitmaps(gitDir);
+        File file = join(gitDir, BITMAP_FILE);
+        if (!file.exists()) {
+            return index;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return index;
+            }
+            int n = buffer.getInt();
+            int m = buffer.getInt();
+            byte[] id = new byte[20];
+            for (int i = 0; i < n; i += 1) {
+                String kind = kindOf(buffer.get());
+                buffer.get(id);
+                index.position(kind + "/" + Pack.toHex(id));
+            }
+            for (int i = 0; i < m; i += 1) {
+                buffer.get(id);
+                long[] words = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(words);
+                buffer.position(buffer.position() + 8 * words.length);
+                index.bitmaps.put(Pack.toHex(id), expand(words));
+            }
+            return index;
+        } catch (IOException io) {
+            return new Bitmaps(gitDir);
+        }
+    }
+
+    private static String kindOf(byte type) {
+        for (String kind : new String[]{ObjectStore.BLOBS, ObjectStore.TREES,
+            ObjectStore.DELTAS}) {
+            if (kind.charAt(0) == type) {
+                return kind;
+            }
+        }
+        throw error("Corrupt bitmap index.");
+    }
+
+    //* the position of the object (KIND/ID), giving it the next one if it has none yet/
+    private int position(String object) {
+        Integer i = positions.get(object);
+        if (i == null) {
+            i = objects.size();
+            objects.add(object);
+            positions.put(object, i);
+        }
+        return i;
+    }
+
+    //* the objects in the set, as KIND/ID/
+    public synchronized List<String> objects(BitSet set) {
+        List<String> result = new ArrayList<>(set.cardinality());
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            result.add(objects.get(i));
+        }
+        return result;
+    }
+
+    //* every tree, blob and delta reachable from the commit at that position of the commit
+    // graph. Commits are walked newest first, so a commit is only reached after everything
+    // above it. One with a bitmap marks its parents as covered, and covered commits pass
+    // that on to theirs; the walk ends as soon as only covered commits are queued/
+    public synchronized BitSet reachable(int commit) {
+        CommitGraph graph = CommitGraph.load(gitDir);
+        BitSet result = new BitSet(objects.size());
+        BitSet queued = new BitSet(graph.size());
+        BitSet covered = new BitSet(graph.size());
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (x, y) -> Integer.compare(graph.generation(y), graph.generation(x)));
+        queue.add(commit);
+        queued.set(commit);
+        // queued commits that are not covered
+        int live = 1;
+        while (live > 0) {
+            int v = queue.remove();
+            boolean isCovered = covered.get(v);
+            if (!isCovered) {
+                live -= 1;
+                String id = graph.id(v);
+                BitSet stored = bitmaps.get(id);
+                if (stored != null) {
+                    result.or(stored);
+                    isCovered = true;
+                } else {
+                    addCommit(Commit.read(gitDir, id), result);
+                }
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int p = graph.parent(v, which);
+                if (p == CommitGraph.NONE) {
+                    continue;
+                }
+                if (isCovered && !covered.get(p)) {
+                    covered.set(p);
+                    if (queued.get(p)) {
+                        live -= 1;
+                    }
+                }
+                if (!queued.get(p)) {
+                    queued.set(p);
+                    queue.add(p);
+                    if (!covered.get(p)) {
+                        live += 1;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addCommit(Commit c, BitSet result) {
+        if (c.getTree() != null) {
+            addTree(c.getTree(), result);
+        } else {
+            for (String hash : c.getBlobs().values()) {
+                addBlob(hash, result);
+            }
+        }
+    }
+
+    //* adds the tree and everything below it. A tree already in the set has everything
+    // below it there too, so it is not read again/
+    private void addTree(String treeId, BitSet result) {
+        String key = ObjectStore.TREES + "/" + treeId;
+        Integer i = positions.get(key);
+        if (i != null && result.get(i)) {
+            return;
+        }
+        Tree tree = Tree.read(gitDir, treeId);
+        for (String hash : tree.getBlobs().values()) {
+            addBlob(hash, result);
+        }
+        for (String child : tree.getTrees().values()) {
+            addTree(child, result);
+        }
+        result.set(position(key));
+    }
+
+    //* adds the blob, or the delta with the blobs it is built from/
+    private void addBlob(String hash, BitSet result) {
+        Integer i = positions.get(ObjectStore.BLOBS + "/" + hash);
+        if (i != null) {
+            result.set(i);
+            return;
+        }
+        String key = ObjectStore.DELTAS + "/" + hash;
+        i = positions.get(key);
+        if (i != null && result.get(i)) {
+            return;
+        }
+        ByteBuffer delta = ObjectStore.map(gitDir, ObjectStore.DELTAS, hash);
+        if (delta != null) {
+            byte[] base = new byte[20];
+            delta.get(base);
+            addBlob(Pack.toHex(base), result);
+            result.set(position(key));
+        } else if (ObjectStore.contains(gitDir, ObjectStore.BLOBS, hash)) {
+            result.set(position(ObjectStore.BLOBS + "/" + hash));
+        }
+    }
+
+    //* computes the bitmaps of the branch tips and of the sampled commits, oldest first so
+    // each one starts from those below it, and writes them to .gitlet/bitmaps/
+    public static void write(File gitDir) {
+        CommitGraph graph = CommitGraph.load(gitDir);
+        ArrayList<Integer> selected = new ArrayList<>();
+        BitSet chosen = new BitSet(graph.size());
+        List<String> branches = plainFilenamesIn(join(gitDir, "branches"));
+        if (branches != null) {
+            for (String branch : branches) {
+                int tip = graph.find(readObject(join(gitDir, "branches", branch), String.class));
+                if (tip != CommitGraph.NONE && !chosen.get(tip)) {
+                    chosen.set(tip);
+                    selected.add(tip);
+                }
+            }
+        }
+        for (int i = 0; i < graph.size(); i += 1) {
+            if (graph.generation(i) % SAMPLE == 0 && !chosen.get(i)) {
+                chosen.set(i);
+                selected.add(i);
+            }
+        }
+        selected.sort((x, y) -> Integer.compare(graph.generation(x), graph.generation(y)));
+        Bitmaps index = new Bitmaps(gitDir);
+        ArrayList<long[]> compressed = new ArrayList<>();
+        long size = HEADER_SIZE;
+        for (int commit : selected) {
+            BitSet set = index.reachable(commit);
+            index.bitmaps.put(graph.id(commit), set);
+            long[] words = compress(set);
+            compressed.add(words);
+            size += 24 + 8L * words.length;
+        }
+        size += 21L * index.objects.size();
+        if (size > Integer.MAX_VALUE) {
+            System.out.println("Too many objects for a bitmap index.");
+            return;
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(index.objects.size()).putInt(selected.size());
+        for (String object : index.objects) {
+            int slash = object.indexOf('/');
+            out.put((byte) object.charAt(0)).put(Pack.toBytes(object.substring(slash + 1)));
+        }
+        for (int i = 0; i < selected.size(); i += 1) {
+            long[] words = compressed.get(i);
+            out.put(Pack.toBytes(graph.id(selected.get(i)))).putInt(words.length);
+            out.asLongBuffer().put(words);
+            out.position(out.position() + 8 * words.length);
+        }
+        out.flip();
+        File temp = join(gitDir, BITMAP_FILE + ".lock");
+        try (FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+            channel.truncate(0);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        } catch (IOException io) {
+            System.out.println("io error");
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), join(gitDir, BITMAP_FILE).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+        unload(gitDir);
+    }
+
+    //* the words of the set as runs: a marker (FULL_RUN if the run is of full words, the
+    // length of the run shifted by 32 and the number of literal words after it) and then
+    // the literal words/
+    static long[] compress(BitSet set) {
+        long[] words = set.toLongArray();
+        long[] out = new long[2 * words.length + 1];
+        int n = 0;
+        int i = 0;
+        while (i < words.length) {
+            long fill = words[i] == -1L ? -1L : 0L;
+            int run = 0;
+            while (i < words.length && words[i] == fill && run < MAX_RUN) {
+                run += 1;
+                i += 1;
+            }
+            int start = i;
+            while (i < words.length && words[i] != 0L && words[i] != -1L) {
+                i += 1;
+            }
+            out[n] = (fill == -1L ? FULL_RUN : 0L) | ((long) run << 32) | (i - start);
+            System.arraycopy(words, start, out, n + 1, i - start);
+            n += 1 + i - start;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    static BitSet expand(long[] compressed) {
+        int total = 0;
+        for (int i = 0; i < compressed.length; i += 1 + (int) compressed[i]) {
+            total += (int) ((compressed[i] >>> 32) & MAX_RUN) + (int) compressed[i];
+        }
+        long[] words = new long[total];
+        int at = 0;
+        for (int i = 0; i < compressed.length; i += 1 + (int) compressed[i]) {
+            int run = (int) ((compressed[i] >>> 32) & MAX_RUN);
+            if ((compressed[i] & FULL_RUN) != 0) {
+                Arrays.fill(words, at, at + run, -1L);
+            }
+            at += run;
+            System.arraycopy(compressed, i + 1, words, at, (int) compressed[i]);
+            at += (int) compressed[i];
+        }
+        return BitSet.valueOf(words);
+    }
+}
@@ -1,8 +1,19 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 import static gitlet.Utils.*;
@@ -10,6 +21,11 @@ import static gitlet.Utils.*;
 /**
  * Does blob related functions
  * save and read Blobs
+ * A blob that changed from the version at the same path in the parent commit is stored
+ * as a delta against that version (in .gitlet/deltas: base id, chain depth, then the
+ * Delta) when that is less than half its size. Chains are at most delta.depth long, and
+ * the blobs rebuilt while reading a chain are kept in a small cache, so reading the
+ * next revision of the same file only applies one delta.
  *
  * @author Medhaav Chandra Mahesh
  *
@@ -17,29 +33,184 @@ import static gitlet.Utils.*;
 
 public class Blobs implements Serializable {
     static final File BLOBS_FOLDER = join(Repository.GITLET_DIR, "blobs");
+    /**
+     * Hash formats: repositories without a hash.format stamp keep the original hash
+     */
+    static final int LEGACY_HASH = 1;
+    static final int STREAM_HASH = 2;
+    /**
+     * A digest and a direct read buffer per thread, reused for every file
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw error("System does not support SHA-1");
+        }
+    });
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1 << 16));
+    private static final int DEFAULT_DELTA_DEPTH = 10;
+    /**
+     * Files smaller or larger than this are always stored whole
+     */
+    private static final int MIN_DELTA_SIZE = 256;
+    private static final int MAX_DELTA_SIZE = 64 << 20;
+    /**
+     * Bytes of rebuilt blobs kept in CACHE, least recently used first
+     */
+    private static final long CACHE_SIZE = 32 << 20;
+    private static final LinkedHashMap<String, byte[]> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long cached;
 
-    //* creates a hash of a file based on its contents and file name/
+    //* creates a hash of a file: "blob <size>\0" followed by the contents, read in chunks/
     public static String hashBlob(File f) {
+        if (Config.getInt(Config.HASH_FORMAT, LEGACY_HASH) == LEGACY_HASH) {
+            return legacyHashBlob(f);
+        }
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel in = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            md.update(("blob " + in.size() + "\0").getBytes(StandardCharsets.UTF_8));
+            buffer.clear();
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException io) {
+            throw error("io error");
+        }
+        return Pack.toHex(md.digest());
+    }
+
+    //* the original hash of a file based on its contents and file name/
+    private static String legacyHashBlob(File f) {
         HashSet<String> b = new HashSet<>();
         b.add(readContentsAsString(f));
         b.add(f.getName());
         return sha1(serialize(b));
     }
 
+    //* whether the repository has the blob, whole or as a delta/
+    public static boolean exists(File gitDir, String hash) {
+        return ObjectStore.contains(gitDir, ObjectStore.BLOBS, hash)
+                || ObjectStore.contains(gitDir, ObjectStore.DELTAS, hash);
+    }
+
     //* saves the file as a blob/
     public static String saveBlob(File f) {
-        String hash = hashBlob(f);
-        File blobFile = join(BLOBS_FOLDER, hash);
-        writeContents(blobFile, readContents(f));
+        return saveBlob(f, null);
+    }
+
+    //* saves the file as a blob, as a delta against the base blob if that is worth it/
+    public static String saveBlob(File f, String baseHash) {
+        return saveBlob(f, hashBlob(f), baseHash);
+    }
+
+    //* same, for a file whose hash is already known/
+    public static String saveBlob(File f, String hash, String baseHash) {
+        if (exists(Repository.GITLET_DIR, hash)) {
+            return hash;
+        }
+        if (baseHash == null || !saveDelta(f, hash, baseHash)) {
+            ObjectStore.writeLoose(Repository.GITLET_DIR, ObjectStore.BLOBS, hash, f);
+        }
         return hash;
     }
 
+    private static boolean saveDelta(File f, String hash, String baseHash) {
+        long size = f.length();
+        int maxDepth = Config.getInt(Config.DELTA_DEPTH, DEFAULT_DELTA_DEPTH);
+        if (size < MIN_DELTA_SIZE || size > MAX_DELTA_SIZE || maxDepth <= 0) {
+            return false;
+        }
+        int depth = 1;
+        ByteBuffer baseDelta = ObjectStore.map(Repository.GITLET_DIR, ObjectStore.DELTAS,
+                baseHash);
+        if (baseDelta != null) {
+            depth = (baseDelta.get(20) & 0xff) + 1;
+            if (depth > maxDepth) {
+                return false;
+            }
+        }
+        byte[] base = resolve(Repository.GITLET_DIR, baseHash);
+        if (base == null) {
+            return false;
+        }
+        byte[] delta = Delta.create(base, readContents(f), (int) size / 2);
+        if (delta == null) {
+            return false;
+        }
+        ByteBuffer contents = ByteBuffer.allocate(21 + delta.length);
+        contents.put(Pack.toBytes(baseHash)).put((byte) depth).put(delta);
+        ObjectStore.write(Repository.GITLET_DIR, ObjectStore.DELTAS, hash, contents.array());
+        return true;
+    }
+
+    //* returns the contents of a blob stored whole or as a delta, or null if the
+    // repository does not have it/
+    static byte[] resolve(File gitDir, String hash) {
+        ArrayList<String> chain = new ArrayList<>();
+        ArrayList<ByteBuffer> deltas = new ArrayList<>();
+        byte[] contents = null;
+        String id = hash;
+        while (contents == null) {
+            contents = cached(id);
+            if (contents != null) {
+                break;
+            }
+            ByteBuffer whole = ObjectStore.map(gitDir, ObjectStore.BLOBS, id);
+            if (whole != null) {
+                contents = new byte[whole.remaining()];
+                whole.get(contents);
+                break;
+            }
+            ByteBuffer delta = ObjectStore.map(gitDir, ObjectStore.DELTAS, id);
+            if (delta == null) {
+                return null;
+            }
+            byte[] base = new byte[20];
+            delta.get(base);
+            delta.get();
+            chain.add(id);
+            deltas.add(delta);
+            id = Pack.toHex(base);
+        }
+        for (int i = chain.size() - 1; i >= 0; i -= 1) {
+            contents = Delta.apply(ByteBuffer.wrap(contents), deltas.get(i));
+            cache(chain.get(i), contents);
+        }
+        return contents;
+    }
+
+    private static synchronized byte[] cached(String hash) {
+        return CACHE.get(hash);
+    }
+
+    private static synchronized void cache(String hash, byte[] contents) {
+        if (contents.length > CACHE_SIZE / 4 || CACHE.containsKey(hash)) {
+            return;
+        }
+        CACHE.put(hash, contents);
+        cached += contents.length;
+        Iterator<Map.Entry<String, byte[]>> oldest = CACHE.entrySet().iterator();
+        while (cached > CACHE_SIZE) {
+            cached -= oldest.next().getValue().length;
+            oldest.remove();
+        }
+    }
+
     //* reads the blob with that has the hash as its file name/
     public static byte[] readBlob(String fileHash) {
 
-        File foundFile = join(BLOBS_FOLDER, fileHash);
-        if (foundFile.exists()) {
-            byte[] convertFile = readContents(foundFile);
+        byte[] convertFile = ObjectStore.read(Repository.GITLET_DIR, ObjectStore.BLOBS, fileHash);
+        if (convertFile == null) {
+            convertFile = resolve(Repository.GITLET_DIR, fileHash);
+        }
+        if (convertFile != null) {
             return convertFile;
         } else {
             System.out.print("No file with that id exists.");
@@ -47,5 +218,37 @@ public class Blobs implements Serializable {
         return null;
     }
 
+    //* maps the blob instead of reading it, so large blobs stay off the heap/
+    public static ByteBuffer mapBlob(String fileHash) {
+        ByteBuffer blob = ObjectStore.map(Repository.GITLET_DIR, ObjectStore.BLOBS, fileHash);
+        if (blob == null) {
+            byte[] contents = resolve(Repository.GITLET_DIR, fileHash);
+            blob = contents == null ? null : ByteBuffer.wrap(contents);
+        }
+        if (blob == null) {
+            System.out.print("No file with that id exists.");
+        }
+        return blob;
+    }
+
+    //* writes the blob straight into the file without loading it into memory/
+    public static void checkoutBlob(String fileHash, File f) {
+        if (!checkoutBlob(Repository.GITLET_DIR, fileHash, f)) {
+            System.out.print("No file with that id exists.");
+        }
+    }
+
+    //* same, from the blobs of that repository. Returns false if it has no such blob/
+    static boolean checkoutBlob(File gitDir, String fileHash, File f) {
+        if (ObjectStore.copyTo(gitDir, ObjectStore.BLOBS, fileHash, f)) {
+            return true;
+        }
+        byte[] contents = resolve(gitDir, fileHash);
+        if (contents == null) {
+            return false;
+        }
+        writeContents(f, contents);
+        return true;
+    }
 
 }
@@ -0,0 +1,129 @@
+package gitlet;
+
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/**
+ * Writes the files of a checkout with a pool of threads
+ * Each file is written from its blob by one of checkout.parallelism workers (by default
+ * one per processor), so a checkout of many files keeps the disk busy instead of waiting
+ * on one write at a time. Callers do every check before and delete files after, so the
+ * workers only ever create or overwrite the paths they are given.
+ *
+ * Each file also gets the mode it has in the commit: executable files are made
+ * executable, and any other file that is written loses the executable bit.
+ *
+ * A failed write does not stop the others. Once all are done, the error of the first
+ * failed path in the order given is reported, so the outcome does not depend on which
+ * thread got there first.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Checkout {
+
+    static final String PARALLELISM = "checkout.parallelism";
+    /**
+     * Files per fork-join task before it stops splitting
+     */
+    private static final int THRESHOLD = 4;
+
+    public static int parallelism() {
+        int threads = Config.getInt(PARALLELISM, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, threads);
+    }
+
+    //* writes the blob of each path into the file at that path below root and gives it
+    // the mode of that path (see Stage), unless modes is null/
+    public static void write(File gitDir, File root, String[] paths, String[] blobs,
+                             int[] modes, int threads) {
+        RuntimeException[] errors = new RuntimeException[paths.length];
+        boolean[] missing = new boolean[paths.length];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new WriteTask(gitDir, root, paths, blobs, modes, errors, missing,
+                    0, paths.length));
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < paths.length; i += 1) {
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+            if (missing[i]) {
+                System.out.print("No file with that id exists.");
+            }
+        }
+    }
+
+    //* writes the blob into the file at the path below root, creating its folders.
+    // Returns false if there is no such blob/
+    private static boolean writeFile(File gitDir, File root, String path, String blob,
+                                     int[] modes, int i) {
+        File target = join(root, path);
+        target.getParentFile().mkdirs();
+        if (!Blobs.checkoutBlob(gitDir, blob, target)) {
+            return false;
+        }
+        if (modes != null) {
+            setMode(target, modes[i]);
+        }
+        return true;
+    }
+
+    //* makes the file executable or not, as the mode says/
+    static void setMode(File f, int mode) {
+        boolean executable = mode == Stage.EXECUTABLE;
+        if (executable != f.canExecute()) {
+            f.setExecutable(executable, false);
+        }
+    }
+
+    private static class WriteTask extends RecursiveAction {
+        private final File gitDir;
+        private final File root;
+        private final String[] paths;
+        private final String[] blobs;
+        private final int[] modes;
+        private final RuntimeException[] errors;
+        private final boolean[] missing;
+        private final int lo;
+        private final int hi;
+
+        WriteTask(File gitDir, File root, String[] paths, String[] blobs, int[] modes,
+                  RuntimeException[] errors, boolean[] missing, int lo, int hi) {
+            this.gitDir = gitDir;
+            this.root = root;
+            this.paths = paths;
+            this.blobs = blobs;
+            this.modes = modes;
+            this.errors = errors;
+            this.missing = missing;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                for (int i = lo; i < hi; i += 1) {
+                    try {
+                        missing[i] = !writeFile(gitDir, root, paths[i], blobs[i], modes, i);
+                    } catch (RuntimeException e) {
+                        errors[i] = e;
+                    }
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new WriteTask(gitDir, root, paths, blobs, modes, errors, missing,
+                                lo, mid),
+                        new WriteTask(gitDir, root, paths, blobs, modes, errors, missing,
+                                mid, hi));
+            }
+        }
+    }
+}
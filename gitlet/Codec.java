@@ -0,0 +1,211 @@
+package gitlet;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/**
+ * How the contents of a stored object are encoded
+ * A stored object is one byte naming its codec followed by the encoded contents.
+ * NONE keeps the contents as they are, so they can still be mapped and copied without
+ * touching the heap. DEFLATE stores the size of the contents as a long followed by a
+ * zlib stream, and is inflated in chunks straight into wherever the contents go.
+ *
+ * The codec new objects are written with is object.codec in the config; objects keep
+ * the codec they were written with, so changing it never rewrites anything.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public enum Codec {
+
+    NONE("none"),
+    DEFLATE("deflate");
+
+    private static final int CHUNK = 1 << 16;
+
+    private final String name;
+
+    Codec(String name) {
+        this.name = name;
+    }
+
+    //* the name of the codec in the config/
+    public String getName() {
+        return name;
+    }
+
+    //* the codec with that name in the config/
+    static Codec named(String name) {
+        for (Codec codec : values()) {
+            if (codec.name.equals(name.trim())) {
+                return codec;
+            }
+        }
+        throw error("Unknown object codec %s.", name);
+    }
+
+    private static Codec of(ByteBuffer stored) {
+        int id = stored.get(stored.position()) & 0xff;
+        if (id >= values().length) {
+            throw error("Corrupt object.");
+        }
+        return values()[id];
+    }
+
+    //* returns the contents with the codec byte in front, encoded/
+    public byte[] encode(byte[] contents) {
+        if (this == NONE) {
+            byte[] stored = new byte[contents.length + 1];
+            System.arraycopy(contents, 0, stored, 1, contents.length);
+            return stored;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 2 + 16);
+        out.write(ordinal());
+        ByteBuffer size = ByteBuffer.allocate(8).putLong(contents.length);
+        out.write(size.array(), 0, 8);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+            byte[] chunk = new byte[CHUNK];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    //* writes the file to the channel with the codec byte in front, encoding it from a
+    // mapped view in chunks/
+    public void encode(File source, FileChannel out) throws IOException {
+        ByteBuffer contents = ObjectStore.mapFile(source);
+        ByteBuffer header = ByteBuffer.allocate(9).put((byte) ordinal());
+        if (this == NONE) {
+            header.flip();
+            writeFully(out, header);
+            writeFully(out, contents);
+            return;
+        }
+        header.putLong(contents.remaining()).flip();
+        writeFully(out, header);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK);
+            while (!deflater.finished()) {
+                chunk.clear();
+                deflater.deflate(chunk);
+                chunk.flip();
+                writeFully(out, chunk);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //* returns the contents of a stored object/
+    public static byte[] decode(ByteBuffer stored) {
+        ByteBuffer view = view(stored);
+        byte[] contents = new byte[view.remaining()];
+        view.get(contents);
+        return contents;
+    }
+
+    //* the number of bytes view inflates the stored object into: its size for a compressed
+    // object and 0 for NONE, which view does not copy/
+    public static long inflatedSize(ByteBuffer stored) {
+        if (of(stored) == NONE) {
+            return 0;
+        }
+        return stored.getLong(stored.position() + 1);
+    }
+
+    //* returns the contents of a stored object as a buffer: a slice of the stored
+    // bytes for NONE, so nothing is copied, and the inflated contents otherwise/
+    public static ByteBuffer view(ByteBuffer stored) {
+        stored = stored.duplicate();
+        Codec codec = of(stored);
+        stored.get();
+        if (codec == NONE) {
+            return stored.slice();
+        }
+        long size = stored.getLong();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw error("Object too large to read into memory.");
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) size);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            int n;
+            do {
+                n = inflate(inflater, contents);
+            } while (n > 0 && contents.hasRemaining());
+        } finally {
+            inflater.end();
+        }
+        if (contents.hasRemaining()) {
+            throw error("Corrupt object.");
+        }
+        contents.flip();
+        return contents;
+    }
+
+    //* writes the contents of a stored object to the channel, inflating one chunk at
+    // a time, so the whole contents are never on the heap/
+    public static void decode(ByteBuffer stored, FileChannel out) throws IOException {
+        stored = stored.duplicate();
+        Codec codec = of(stored);
+        stored.get();
+        if (codec == NONE) {
+            writeFully(out, stored);
+            return;
+        }
+        long size = stored.getLong();
+        long done = 0;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK);
+            while (done < size) {
+                chunk.clear();
+                int n = inflate(inflater, chunk);
+                if (n == 0) {
+                    throw error("Corrupt object.");
+                }
+                chunk.flip();
+                writeFully(out, chunk);
+                done += n;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int inflate(Inflater inflater, ByteBuffer output) {
+        try {
+            return inflater.inflate(output);
+        } catch (DataFormatException e) {
+            throw error("Corrupt object.");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
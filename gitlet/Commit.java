@@ -1,16 +1,38 @@
 package gitlet;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
+ *
+ *  Commits are stored in a versioned binary encoding (see encode) and the id is the
+ *  hash of that encoding, so it does not depend on the JVM. Commits written by older
+ *  versions with Java serialization are still read; "gitlet migrate" rewrites them.
  *
  *  @author Medhaav Chandra Mahesh
  *
@@ -18,6 +40,30 @@ import static gitlet.Utils.*;
  */
 public class Commit implements Serializable {
 
+    /**
+     * Pinned to the original value so commits written by older versions still deserialize
+     */
+    private static final long serialVersionUID = -3884838541979064242L;
+    /**
+     * Magic number ("GCMT") and version of the binary encoding
+     */
+    private static final int MAGIC = 0x47434d54;
+    private static final int FORMAT = 1;
+    /**
+     * Commits read so far by repository and id, least recently used first. The key has
+     * the repository in it because a hit also says that repository has the commit
+     */
+    private static final int CACHE_SIZE = 2048;
+    private static final LinkedHashMap<String, Commit> CACHE =
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+    private static long hits;
+    private static long misses;
+
     /**
      * The folder where commits are stored
      */
@@ -40,68 +86,267 @@ public class Commit implements Serializable {
      */
     private String author;
     /**
-     * the specific log of just this commit
+     * the date as seconds since the epoch and the offset (in seconds) of its time zone
      */
-    private String log;
+    private transient long seconds;
+    private transient int offset;
     /**
-     * Hashmap containining all the blob files stored in the commit
+     * Hashmap containining all the blob files stored in the commit. Only set in
+     * commits made before trees; newer commits have a root tree instead
      */
     private HashMap<String, String> blobs;
+    /**
+     * Id of the root tree of the commit
+     */
+    private String tree;
+    /**
+     * The files of the commit, built the first time they are needed. Cached commits are
+     * shared between threads, so the two maps are published together through one
+     * volatile field; two threads that both build them just build the same thing
+     */
+    private transient volatile Contents files;
+    /**
+     * The repository the commit was read from, where its trees are; null for the local one
+     */
+    private transient File gitDir;
     /**
      * ArrayList containing parents of the commit. Contains two parents if it is a merge commit
      */
     private ArrayList<String> parents = new ArrayList<>(2);
 
-    public Commit(String s, String parent, HashMap<String, String> blobs) {
+    public Commit(String s, String parent, String tree) {
         this.message = s;
         parents.add(parent);
-        Date tempDate;
+        ZonedDateTime time;
         if (s.equals("initial commit")) {
-            tempDate = new Date(0);
+            time = Instant.EPOCH.atZone(ZoneId.systemDefault());
         } else {
-            tempDate = new Date();
-
+            time = ZonedDateTime.now();
         }
-        this.date = String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", tempDate);
+        this.seconds = time.toEpochSecond();
+        this.offset = time.getOffset().getTotalSeconds();
+        this.date = formatDate(seconds, offset);
         this.author = "PC";
-        this.blobs = blobs;
-        this.id = sha1(serialize(this));
-        this.log = String.format("===\ncommit %s\nDate: %s\n%s\n", id, date, message);
+        this.tree = tree;
+        this.id = sha1(encode());
     }
-    public Commit(String s, String parent1, String parent2, HashMap<String, String> blobs) {
-        this(s, parent1, blobs);
+    public Commit(String s, String parent1, String parent2, String tree) {
+        this(s, parent1, tree);
         parents.add(parent2);
-        this.log = String.format("===\ncommit %s\nMerge: %s %s\nDate: %s\n%s\n",
-                id, parent1.substring(0, 7), parent2.substring(0, 7), date, message);
+        this.id = sha1(encode());
+    }
+
+    private Commit() {
     }
 
+    private static String formatDate(long seconds, int offset) {
+        ZonedDateTime time = Instant.ofEpochSecond(seconds)
+                .atZone(ZoneOffset.ofTotalSeconds(offset));
+        return String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", time);
+    }
+
+    //* magic, format, parent count and parent ids, date and zone offset, author,
+    // message and root tree/
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT);
+            int count = 0;
+            for (String parent : parents) {
+                if (parent != null) {
+                    count += 1;
+                }
+            }
+            out.writeByte(count);
+            for (String parent : parents) {
+                if (parent != null) {
+                    out.write(Pack.toBytes(parent));
+                }
+            }
+            out.writeLong(seconds);
+            out.writeInt(offset);
+            writeString(out, author);
+            writeString(out, message);
+            out.write(Pack.toBytes(tree));
+        } catch (IOException io) {
+            throw error("Internal error serializing commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static Commit decode(byte[] contents) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+        in.readInt();
+        if (in.readByte() != FORMAT) {
+            throw new IOException("unknown commit format");
+        }
+        Commit c = new Commit();
+        int count = in.readByte();
+        byte[] parent = new byte[20];
+        for (int i = 0; i < count; i += 1) {
+            in.readFully(parent);
+            c.parents.add(Pack.toHex(parent));
+        }
+        if (count == 0) {
+            c.parents.add(null);
+        }
+        c.seconds = in.readLong();
+        c.offset = in.readInt();
+        c.date = formatDate(c.seconds, c.offset);
+        c.author = readString(in);
+        c.message = readString(in);
+        byte[] treeId = new byte[20];
+        in.readFully(treeId);
+        c.tree = Pack.toHex(treeId);
+        c.id = sha1(contents);
+        return c;
+    }
+
+    //* whether the commit was written with Java serialization by an older version/
+    static boolean isLegacy(byte[] contents) {
+        return contents.length < 4 || ((contents[0] & 0xff) << 24 | (contents[1] & 0xff) << 16
+                | (contents[2] & 0xff) << 8 | (contents[3] & 0xff)) != MAGIC;
+    }
+
+    //* rewrites an older commit in the binary encoding, with its parents replaced by
+    // their rewritten ids and its blob map turned into a tree/
+    Commit migrate(String parent1, String parent2) {
+        Commit c = new Commit();
+        c.message = message;
+        c.parents.add(parent1);
+        if (parent2 != null) {
+            c.parents.add(parent2);
+        }
+        c.seconds = seconds;
+        c.offset = offset;
+        c.date = formatDate(seconds, offset);
+        c.author = author;
+        c.tree = Tree.of(this);
+        c.id = sha1(c.encode());
+        return c;
+    }
 
     public void saveCommit() {
-        File commitFile = join(COMMIT_FOLDER, id);
-        writeObject(commitFile, this);
+        ObjectStore.write(Repository.GITLET_DIR, ObjectStore.COMMITS, id, encode());
     }
 
 
 
     public static Commit getCommit(String s) {
 
-        File commit = join(COMMIT_FOLDER, s);
-        if (commit.exists()) {
-            Commit c = readObject(commit, Commit.class);
+        Commit c = read(Repository.GITLET_DIR, s);
+        if (c != null) {
             return c;
         } else {
             System.out.print("No commit with that id exists.");
-            System.exit(0);
+            Main.exit();
         }
         return null;
     }
 
+    //* returns the commit with that id from the cache, or reads it from the repository
+    // and caches it. Returns null if the repository has no such commit/
+    static Commit read(File gitDir, String id) {
+        String key = join(gitDir, id).getPath();
+        synchronized (CACHE) {
+            Commit c = CACHE.get(key);
+            if (c != null) {
+                hits += 1;
+                return c;
+            }
+            misses += 1;
+        }
+        byte[] contents = ObjectStore.read(gitDir, ObjectStore.COMMITS, id);
+        if (contents == null) {
+            return null;
+        }
+        Commit c = fromBytes(contents);
+        c.gitDir = gitDir;
+        synchronized (CACHE) {
+            CACHE.put(key, c);
+        }
+        return c;
+    }
+
+    //* empties the cache, for when commits were rewritten or removed/
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    //* hits and misses of the cache since the process started/
+    static String cacheStats() {
+        synchronized (CACHE) {
+            return String.format("commit cache: %d hits, %d misses, %d cached", hits, misses,
+                    CACHE.size());
+        }
+    }
+
+    //* deserializes a commit from its stored bytes, wherever they were read from/
+    static Commit fromBytes(byte[] contents) {
+        if (!isLegacy(contents)) {
+            try {
+                return decode(contents);
+            } catch (IOException excp) {
+                throw error("Corrupt commit object.");
+            }
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(contents))) {
+            Commit c = (Commit) in.readObject();
+            c.parseDate();
+            return c;
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw error("Corrupt commit object.");
+        }
+    }
+
+    private void parseDate() {
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z", Locale.US);
+            seconds = format.parse(date).getTime() / 1000;
+            String zone = date.substring(date.length() - 5);
+            int minutes = Integer.parseInt(zone.substring(1, 3)) * 60
+                    + Integer.parseInt(zone.substring(3));
+            offset = (zone.charAt(0) == '-' ? -60 : 60) * minutes;
+        } catch (ParseException | NumberFormatException | IndexOutOfBoundsException e) {
+            seconds = 0;
+            offset = 0;
+        }
+    }
+
     public String getId() {
         return id;
     }
 
     public String getLog() {
-        return log;
+        if (parents.size() > 1) {
+            return String.format("===\ncommit %s\nMerge: %s %s\nDate: %s\n%s\n", id,
+                    parents.get(0).substring(0, 7), parents.get(1).substring(0, 7), date, message);
+        }
+        return String.format("===\ncommit %s\nDate: %s\n%s\n", id, date, message);
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    //* the commit date in seconds since the epoch/
+    public long getTimestamp() {
+        return seconds;
     }
 
     public String getMessage() {
@@ -122,19 +367,39 @@ public class Commit implements Serializable {
     }
 
 
-    public HashMap<String, String> getBlobs() {
-        return blobs;
+    //* every file of the commit as path -> blob id, with the trees read from the
+    // repository the commit came from. The commit may be in the cache, shared by every
+    // later caller, so the map cannot be changed/
+    public Map<String, String> getBlobs() {
+        return files().blobs;
     }
 
-    public void logs() {
-        if (parents.get(0) == null) {
-            System.out.print(getLog());
-        } else {
-            Commit parentCommit = getCommit(parents.get(0));
-            System.out.println(getLog());
-            parentCommit.logs();
+    //* the mode the file at that path has in the commit (see Stage)/
+    public int modeOf(String path) {
+        return files().executables.contains(path) ? Stage.EXECUTABLE : Stage.REGULAR;
+    }
+
+    private Contents files() {
+        Contents built = files;
+        if (built == null) {
+            HashMap<String, String> flat = new HashMap<>();
+            HashSet<String> executable = new HashSet<>();
+            if (tree == null) {
+                if (blobs != null) {
+                    flat.putAll(blobs);
+                }
+            } else {
+                Tree.flatten(gitDir == null ? Repository.GITLET_DIR : gitDir, tree, flat,
+                        executable);
+            }
+            built = new Contents(Collections.unmodifiableMap(flat), executable);
+            files = built;
         }
+        return built;
+    }
 
+    public String getTree() {
+        return tree;
     }
 
     @Override
@@ -153,4 +418,17 @@ public class Commit implements Serializable {
     public int hashCode() {
         return Objects.hash(id);
     }
+
+    /**
+     * Every file of a commit as path -> blob id, and the paths of the executable ones
+     */
+    private static final class Contents {
+        private final Map<String, String> blobs;
+        private final Set<String> executables;
+
+        Contents(Map<String, String> blobs, Set<String> executables) {
+            this.blobs = blobs;
+            this.executables = executables;
+        }
+    }
 }
@@ -0,0 +1,430 @@
+package gitlet;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * The shape of the commit history in compact int arrays
+ * Every commit gets a position; for each position the graph keeps the positions of its
+ * parents, its generation number (1 + the largest generation of its parents) and its
+ * commit date. Ancestry questions are then answered on the arrays without reading any
+ * commit object. gc writes the graph to .gitlet/commit-graph, sorted by id; commits
+ * made, fetched or pushed since then are appended to .gitlet/commit-graph-tail as they
+ * are saved (id, parent ids and date), so they are in the graph too. Any other commit
+ * is read once and appended in memory the first time it is looked up.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class CommitGraph {
+
+    static final String GRAPH_FILE = "commit-graph";
+    static final String TAIL_FILE = "commit-graph-tail";
+    private static final int MAGIC = 0x47434752;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    /**
+     * Bytes per commit in the tail: the id, the two parent ids (zeros for none), the date
+     */
+    private static final int RECORD_SIZE = 20 * 3 + 8;
+    /**
+     * Value of a parent slot the commit does not use
+     */
+    static final int NONE = -1;
+
+    private static final HashMap<File, CommitGraph> LOADED = new HashMap<>();
+
+    private final File gitDir;
+    /**
+     * Number of commits, and how many of them came sorted from the graph file
+     */
+    private int count;
+    private int stored;
+    private byte[] ids;
+    private int[] parents;
+    private int[] generations;
+    private long[] dates;
+    /**
+     * Positions of the commits appended after the graph file was read
+     */
+    private final HashMap<String, Integer> appended = new HashMap<>();
+
+    private CommitGraph(File gitDir, int capacity) {
+        this.gitDir = gitDir;
+        ids = new byte[20 * capacity];
+        parents = new int[2 * capacity];
+        generations = new int[capacity];
+        dates = new long[capacity];
+    }
+
+    //* builds a graph from parent positions alone (two slots per commit, parents before
+    // their children), without ids or dates. Used to benchmark walks on synthetic histories/
+    static CommitGraph of(int[] parentPositions, int n) {
+        CommitGraph graph = new CommitGraph(null, Math.max(16, n));
+        System.arraycopy(parentPositions, 0, graph.parents, 0, 2 * n);
+        for (int i = 0; i < n; i += 1) {
+            int generation = 1;
+            for (int which = 0; which < 2; which += 1) {
+                int p = graph.parents[2 * i + which];
+                if (p != NONE) {
+                    generation = Math.max(generation, graph.generations[p] + 1);
+                }
+            }
+            graph.generations[i] = generation;
+        }
+        graph.count = n;
+        return graph;
+    }
+
+    public static synchronized CommitGraph load(File gitDir) {
+        CommitGraph graph = LOADED.get(gitDir);
+        if (graph == null) {
+            graph = read(gitDir);
+            LOADED.put(gitDir, graph);
+        }
+        return graph;
+    }
+
+    //* the repositories whose graphs are loaded/
+    static synchronized Set<File> loaded() {
+        return new HashSet<>(LOADED.keySet());
+    }
+
+    //* forgets the graph of that repository, so it is read again on the next load/
+    static synchronized void unload(File gitDir) {
+        LOADED.remove(gitDir);
+    }
+
+    private static CommitGraph read(File gitDir) {
+        CommitGraph graph = readFile(gitDir);
+        graph.readTail();
+        return graph;
+    }
+
+    private static CommitGraph readFile(File gitDir) {
+        File file = join(gitDir, GRAPH_FILE);
+        if (!file.exists()) {
+            return new CommitGraph(gitDir, 16);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return new CommitGraph(gitDir, 16);
+            }
+            int n = buffer.getInt();
+            CommitGraph graph = new CommitGraph(gitDir, Math.max(16, n + n / 4));
+            buffer.get(graph.ids, 0, 20 * n);
+            buffer.asIntBuffer().get(graph.parents, 0, 2 * n);
+            buffer.position(buffer.position() + 8 * n);
+            buffer.asIntBuffer().get(graph.generations, 0, n);
+            buffer.position(buffer.position() + 4 * n);
+            buffer.asLongBuffer().get(graph.dates, 0, n);
+            graph.count = n;
+            graph.stored = n;
+            return graph;
+        } catch (IOException io) {
+            return new CommitGraph(gitDir, 16);
+        }
+    }
+
+    //* adds the commits recorded in the tail since the graph file was written/
+    private void readTail() {
+        File file = join(gitDir, TAIL_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(readContents(file));
+        while (buffer.remaining() >= RECORD_SIZE) {
+            String id = readId(buffer);
+            String parent1 = readId(buffer);
+            String parent2 = readId(buffer);
+            add(id, parent1, parent2, buffer.getLong());
+        }
+    }
+
+    private static String readId(ByteBuffer buffer) {
+        byte[] id = new byte[20];
+        buffer.get(id);
+        for (byte b : id) {
+            if (b != 0) {
+                return Pack.toHex(id);
+            }
+        }
+        return null;
+    }
+
+    //* records the new commit in the tail of that repository, and in its graph if that is
+    // loaded, so that it is found without reading the commit/
+    public static void append(File gitDir, Commit c) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(Pack.toBytes(c.getId()));
+        for (int which = 0; which < 2; which += 1) {
+            String parent = parentOf(c, which);
+            record.put(parent == null ? new byte[20] : Pack.toBytes(parent));
+        }
+        record.putLong(c.getTimestamp());
+        try (FileOutputStream out = new FileOutputStream(join(gitDir, TAIL_FILE), true)) {
+            out.write(record.array());
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+        CommitGraph graph;
+        synchronized (CommitGraph.class) {
+            graph = LOADED.get(gitDir);
+        }
+        if (graph != null) {
+            graph.add(c.getId(), parentOf(c, 0), parentOf(c, 1), c.getTimestamp());
+        }
+    }
+
+    private static String parentOf(Commit c, int which) {
+        return which < c.getParents().size() ? c.getParents().get(which) : null;
+    }
+
+    //* adds a commit the graph does not have yet, once its parents are in it/
+    private synchronized void add(String id, String parent1, String parent2, long date) {
+        if (lookup(id) != NONE
+                || parent1 != null && find(parent1) == NONE
+                || parent2 != null && find(parent2) == NONE) {
+            return;
+        }
+        append(id, parent1, parent2, date);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String id(int i) {
+        return Pack.toHex(Arrays.copyOfRange(ids, 20 * i, 20 * i + 20));
+    }
+
+    //* position of a parent of the commit (which is 0 or 1), or NONE/
+    public int parent(int i, int which) {
+        return parents[2 * i + which];
+    }
+
+    public int generation(int i) {
+        return generations[i];
+    }
+
+    //* commit date in seconds since the epoch/
+    public long date(int i) {
+        return dates[i];
+    }
+
+    //* returns the position of the commit, adding it (and any of its ancestors the graph
+    // does not have yet) if needed, or NONE if there is no such commit/
+    public synchronized int find(String id) {
+        int i = lookup(id);
+        if (i != NONE) {
+            return i;
+        }
+        HashMap<String, Commit> pending = new HashMap<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (lookup(top) != NONE) {
+                stack.pop();
+                continue;
+            }
+            Commit c = pending.get(top);
+            if (c == null) {
+                c = Commit.read(gitDir, top);
+                if (c == null) {
+                    return NONE;
+                }
+                pending.put(top, c);
+            }
+            boolean ready = true;
+            for (String p : c.getParents()) {
+                if (p != null && lookup(p) == NONE) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                append(top, parentOf(c, 0), parentOf(c, 1), c.getTimestamp());
+            }
+        }
+        return lookup(id);
+    }
+
+    private int lookup(String id) {
+        byte[] key = Pack.toBytes(id);
+        if (key == null) {
+            return NONE;
+        }
+        int lo = 0;
+        int hi = stored - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        Integer i = appended.get(id);
+        return i == null ? NONE : i;
+    }
+
+    private int compare(int i, byte[] key) {
+        for (int j = 0; j < 20; j += 1) {
+            int cmp = Byte.toUnsignedInt(ids[20 * i + j]) - Byte.toUnsignedInt(key[j]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private void append(String id, String parent1, String parent2, long date) {
+        if (count == generations.length) {
+            int capacity = count * 2;
+            ids = Arrays.copyOf(ids, 20 * capacity);
+            parents = Arrays.copyOf(parents, 2 * capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            dates = Arrays.copyOf(dates, capacity);
+        }
+        int i = count;
+        System.arraycopy(Pack.toBytes(id), 0, ids, 20 * i, 20);
+        int generation = 1;
+        for (int which = 0; which < 2; which += 1) {
+            String p = which == 0 ? parent1 : parent2;
+            int position = p == null ? NONE : lookup(p);
+            parents[2 * i + which] = position;
+            if (position != NONE) {
+                generation = Math.max(generation, generations[position] + 1);
+            }
+        }
+        generations[i] = generation;
+        dates[i] = date;
+        appended.put(id, i);
+        count += 1;
+    }
+
+    //* every ancestor of the commit, including itself/
+    public BitSet ancestors(int i) {
+        BitSet seen = new BitSet(count);
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(i);
+        seen.set(i);
+        while (!stack.isEmpty()) {
+            int v = stack.pop();
+            for (int which = 0; which < 2; which += 1) {
+                int p = parents[2 * v + which];
+                if (p != NONE && !seen.get(p)) {
+                    seen.set(p);
+                    stack.push(p);
+                }
+            }
+        }
+        return seen;
+    }
+
+    //* whether the first commit is an ancestor of (or the same as) the second. Walks back
+    // from the descendant but never below the generation of the ancestor/
+    public boolean isAncestor(int ancestor, int descendant) {
+        int floor = generations[ancestor];
+        BitSet seen = new BitSet(count);
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(descendant);
+        seen.set(descendant);
+        while (!stack.isEmpty()) {
+            int v = stack.pop();
+            if (v == ancestor) {
+                return true;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int p = parents[2 * v + which];
+                if (p != NONE && !seen.get(p) && generations[p] >= floor) {
+                    seen.set(p);
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    //* writes every commit of the repository to .gitlet/commit-graph, sorted by id, and
+    // empties the tail/
+    public static void write(File gitDir) {
+        CommitGraph graph = load(gitDir);
+        List<String> all = ObjectStore.list(gitDir, ObjectStore.COMMITS);
+        for (String id : all) {
+            graph.find(id);
+        }
+        int n = graph.count;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(graph.ids, 20 * a, 20 * a + 20,
+                graph.ids, 20 * b, 20 * b + 20));
+        int[] position = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            position[order[i]] = i;
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 40 * n);
+        out.putInt(MAGIC).putInt(VERSION).putInt(n);
+        for (int i = 0; i < n; i += 1) {
+            out.put(graph.ids, 20 * order[i], 20);
+        }
+        for (int i = 0; i < n; i += 1) {
+            for (int which = 0; which < 2; which += 1) {
+                int p = graph.parents[2 * order[i] + which];
+                out.putInt(p == NONE ? NONE : position[p]);
+            }
+        }
+        for (int i = 0; i < n; i += 1) {
+            out.putInt(graph.generations[order[i]]);
+        }
+        for (int i = 0; i < n; i += 1) {
+            out.putLong(graph.dates[order[i]]);
+        }
+        out.flip();
+        File temp = join(gitDir, GRAPH_FILE + ".lock");
+        try (FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+            channel.truncate(0);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        } catch (IOException io) {
+            System.out.println("io error");
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), join(gitDir, GRAPH_FILE).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException io) {
+            System.out.println("io error");
+            return;
+        }
+        join(gitDir, TAIL_FILE).delete();
+        unload(gitDir);
+    }
+}
@@ -0,0 +1,174 @@
+package gitlet;
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * An append-only index of commit metadata
+ * commit-index holds one fixed size record per commit (id, both parents, date in
+ * seconds, and the offset and length of its text), and commit-text holds the text
+ * of each commit: the formatted date, a NUL byte and the message. global-log and
+ * find scan both files through memory maps instead of deserializing every commit.
+ *
+ * The index is written when a commit is made, fetched or pushed. A repository that
+ * has no index yet gets one built from all its commits the first time it is needed.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class CommitIndex {
+
+    static final String INDEX_FILE = "commit-index";
+    static final String TEXT_FILE = "commit-text";
+    /**
+     * id, two parents (zero bytes if missing), date, text offset and text length
+     */
+    private static final int RECORD_SIZE = 20 * 3 + 8 + 8 + 4;
+
+    //* appends the commit to the index of that repository, if it has one/
+    public static void append(File gitDir, Commit c) {
+        File index = join(gitDir, INDEX_FILE);
+        if (index.exists()) {
+            write(gitDir, c);
+        }
+    }
+
+    private static void write(File gitDir, Commit c) {
+        File index = join(gitDir, INDEX_FILE);
+        File text = join(gitDir, TEXT_FILE);
+        byte[] contents = (c.getDate() + "\0" + c.getMessage()).getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream textOut = new FileOutputStream(text, true);
+             FileOutputStream indexOut = new FileOutputStream(index, true)) {
+            long offset = textOut.getChannel().size();
+            textOut.write(contents);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.put(Pack.toBytes(c.getId()));
+            for (int which = 0; which < 2; which += 1) {
+                String parent = which < c.getParents().size() ? c.getParents().get(which) : null;
+                record.put(parent == null ? new byte[20] : Pack.toBytes(parent));
+            }
+            record.putLong(c.getTimestamp()).putLong(offset).putInt(contents.length);
+            indexOut.write(record.array());
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+    }
+
+    //* builds the index from every commit if the repository does not have one yet/
+    static void ensure(File gitDir) {
+        File index = join(gitDir, INDEX_FILE);
+        if (index.exists()) {
+            return;
+        }
+        join(gitDir, TEXT_FILE).delete();
+        writeContents(index, new byte[0]);
+        List<String> commits = ObjectStore.list(gitDir, ObjectStore.COMMITS);
+        for (String commitHash : commits) {
+            write(gitDir, Commit.read(gitDir, commitHash));
+        }
+    }
+
+    private static ByteBuffer map(File f) {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException io) {
+            throw error("io error");
+        }
+    }
+
+    //* prints the log entry of every commit in the order they were indexed/
+    public static void globalLog() {
+        ensure(Repository.GITLET_DIR);
+        ByteBuffer index = map(join(Repository.GITLET_DIR, INDEX_FILE));
+        ByteBuffer text = map(join(Repository.GITLET_DIR, TEXT_FILE));
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+        byte[] id = new byte[20];
+        int records = index.capacity() / RECORD_SIZE;
+        for (int i = 0; i < records; i += 1) {
+            int base = i * RECORD_SIZE;
+            index.get(base, id);
+            String commitText = decode(text, (int) index.getLong(base + 68),
+                    index.getInt(base + 76));
+            int split = commitText.indexOf('\0');
+            out.print("===\ncommit " + Pack.toHex(id) + "\n");
+            if (!isZero(index, base + 40)) {
+                out.print("Merge: " + shortId(index, base + 20) + " "
+                        + shortId(index, base + 40) + "\n");
+            }
+            out.print("Date: " + commitText.substring(0, split) + "\n"
+                    + commitText.substring(split + 1) + "\n\n");
+        }
+        out.flush();
+    }
+
+    //* prints the id of every commit with exactly that message. Messages are compared
+    // as bytes in the mapped file, so only matching ones are ever decoded/
+    public static void find(String message) {
+        ensure(Repository.GITLET_DIR);
+        ByteBuffer index = map(join(Repository.GITLET_DIR, INDEX_FILE));
+        ByteBuffer text = map(join(Repository.GITLET_DIR, TEXT_FILE));
+        byte[] wanted = message.getBytes(StandardCharsets.UTF_8);
+        byte[] id = new byte[20];
+        StringBuilder found = new StringBuilder();
+        int records = index.capacity() / RECORD_SIZE;
+        for (int i = 0; i < records; i += 1) {
+            int base = i * RECORD_SIZE;
+            int offset = (int) index.getLong(base + 68);
+            int length = index.getInt(base + 76);
+            if (length > wanted.length && endsWith(text, offset, length, wanted)
+                    && text.get(offset + length - wanted.length - 1) == 0) {
+                index.get(base, id);
+                found.append(Pack.toHex(id)).append("\n");
+            }
+        }
+        if (found.length() == 0) {
+            System.out.println("Found no commit with that message.");
+        } else {
+            System.out.print(found);
+        }
+    }
+
+    private static boolean endsWith(ByteBuffer text, int offset, int length, byte[] wanted) {
+        int start = offset + length - wanted.length;
+        for (int j = 0; j < wanted.length; j += 1) {
+            if (text.get(start + j) != wanted[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer text, int offset, int length) {
+        byte[] bytes = new byte[length];
+        text.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZero(ByteBuffer index, int at) {
+        for (int j = 0; j < 20; j += 1) {
+            if (index.get(at + j) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String shortId(ByteBuffer index, int at) {
+        byte[] id = new byte[4];
+        index.get(at, id);
+        return Pack.toHex(id).substring(0, 7);
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * Per repository settings
+ * Reads and writes the key=value pairs in .gitlet/config. Repositories created
+ * before a setting existed simply do not have it, so every lookup takes a default.
+ * Settings of another repository (a remote) can be read by passing its .gitlet folder.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Config {
+
+    static final File CONFIG_FILE = join(Repository.GITLET_DIR, "config");
+    /**
+     * Version of the blob hash (see Blobs.hashBlob)
+     */
+    static final String HASH_FORMAT = "hash.format";
+    /**
+     * Longest chain of deltas a blob may be stored at the end of; 0 stores every blob whole
+     */
+    static final String DELTA_DEPTH = "delta.depth";
+    /**
+     * How objects are stored (see ObjectStore.format) and the Codec new objects are
+     * written with
+     */
+    static final String OBJECT_FORMAT = "object.format";
+    static final String OBJECT_CODEC = "object.codec";
+
+    private static final HashMap<File, Properties> LOADED = new HashMap<>();
+
+    private static synchronized Properties load(File gitDir) {
+        Properties properties = LOADED.get(gitDir);
+        if (properties == null) {
+            properties = new Properties();
+            File configFile = join(gitDir, CONFIG_FILE.getName());
+            if (configFile.exists()) {
+                try (InputStream in = new FileInputStream(configFile)) {
+                    properties.load(in);
+                } catch (IOException io) {
+                    System.out.println("io error");
+                }
+            }
+            LOADED.put(gitDir, properties);
+        }
+        return properties;
+    }
+
+    //* the repositories whose settings are loaded/
+    static synchronized Set<File> loaded() {
+        return new HashSet<>(LOADED.keySet());
+    }
+
+    //* forgets the settings of that repository, so the config is read again/
+    static synchronized void unload(File gitDir) {
+        LOADED.remove(gitDir);
+    }
+
+    public static String get(String key, String defaultValue) {
+        return get(Repository.GITLET_DIR, key, defaultValue);
+    }
+
+    public static String get(File gitDir, String key, String defaultValue) {
+        return load(gitDir).getProperty(key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        return getInt(Repository.GITLET_DIR, key, defaultValue);
+    }
+
+    public static int getInt(File gitDir, String key, int defaultValue) {
+        String value = get(gitDir, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static void set(String key, String value) {
+        Properties properties = load(Repository.GITLET_DIR);
+        properties.setProperty(key, value);
+        try (OutputStream out = new FileOutputStream(CONFIG_FILE)) {
+            properties.store(out, null);
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+    }
+}
@@ -4,6 +4,10 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static gitlet.Utils.*;
 import static gitlet.Repository.*;
@@ -20,6 +24,20 @@ import static gitlet.Repository.*;
 public class Core implements Serializable {
 
     static File headFile = join(GITLET_DIR, "HEAD");
+    /**
+     * Branch and HEAD files read so far by path, least recently used first. An entry is
+     * only used while the file keeps the modification time it had when it was read, and
+     * files changed within RACY_WINDOW ms are not cached, as in StatCache
+     */
+    private static final int REF_CACHE_SIZE = 256;
+    private static final long RACY_WINDOW = 2000;
+    private static final LinkedHashMap<String, Ref> REFS =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Ref> eldest) {
+                    return size() > REF_CACHE_SIZE;
+                }
+            };
 
 
     public static void saveHead() {
@@ -62,30 +80,111 @@ public class Core implements Serializable {
     public static String getHeadRemote(String branchName, File gitDir) {
         File branchHead = join(gitDir, branchName);
         if (branchHead.exists()) {
-            return readObject(branchHead, String.class);
+            return readRef(branchHead);
         } else {
             if (gitDir.equals(BRANCHES_FOLDER)) {
                 System.out.println("No such branch exists.");
             } else {
                 System.out.println("That remote does not have that branch.");
             }
-            System.exit(0);
+            Main.exit();
         }
         return null;
     }
 
 
+    /**
+     * Outcomes of updateRef: the branch was moved, it no longer pointed at the expected
+     * commit, another writer holds its lock, or the update failed with an io error
+     */
+    enum RefUpdate { UPDATED, STALE, LOCKED, FAILED }
+
+    //* the lock file of the branch in that branches folder. Locks live in a folder of
+    // their own next to it, so they are never listed as branches/
+    static File refLock(File branchesFolder, String branchName) {
+        return join(branchesFolder.getParentFile(), "locks", branchName + ".lock");
+    }
+
+    //* points the branch in that branches folder at value, but only if it still points at
+    // expected. A lock file keeps two writers apart, and the new value is renamed over
+    // the branch, so a reader sees either the old commit or the new one/
+    public static RefUpdate updateRef(File branchesFolder, String branchName,
+                                      String expected, String value) {
+        File branchFile = join(branchesFolder, branchName);
+        File lock = refLock(branchesFolder, branchName);
+        try {
+            lock.getParentFile().mkdirs();
+            if (!lock.createNewFile()) {
+                return RefUpdate.LOCKED;
+            }
+        } catch (IOException io) {
+            System.out.println("io error");
+            return RefUpdate.FAILED;
+        }
+        boolean moved = false;
+        try {
+            if (!branchFile.exists() || !readObject(branchFile, String.class).equals(expected)) {
+                return RefUpdate.STALE;
+            }
+            writeObject(lock, value);
+            ObjectStore.force(lock);
+            Files.move(lock.toPath(), branchFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            return RefUpdate.UPDATED;
+        } catch (IOException io) {
+            System.out.println("io error");
+            return RefUpdate.FAILED;
+        } finally {
+            // once moved, the lock path is free and may already be another writer's lock
+            if (!moved) {
+                lock.delete();
+            }
+        }
+    }
+
     public static boolean getCore() {
         if (!headFile.exists()) {
             return false;
         }
         File branchHead = join(BRANCHES_FOLDER, getActiveBranch());
-        head = readObject(branchHead, String.class);
+        head = readRef(branchHead);
         return true;
     }
 
     public static String getActiveBranch() {
-        return readObject(headFile, String.class);
+        return readRef(headFile);
+    }
+
+    //* the contents of a branch or HEAD file, from the cache if the file did not change
+    // since it was read/
+    static String readRef(File f) {
+        long mtime = f.lastModified();
+        String key = f.getPath();
+        synchronized (REFS) {
+            Ref cached = REFS.get(key);
+            if (cached != null && cached.mtime == mtime) {
+                return cached.value;
+            }
+        }
+        String value = readObject(f, String.class);
+        synchronized (REFS) {
+            if (mtime != 0 && mtime + RACY_WINDOW < System.currentTimeMillis()) {
+                REFS.put(key, new Ref(mtime, value));
+            } else {
+                REFS.remove(key);
+            }
+        }
+        return value;
+    }
+
+    private static class Ref {
+        private final long mtime;
+        private final String value;
+
+        Ref(long mtime, String value) {
+            this.mtime = mtime;
+            this.value = value;
+        }
     }
 
 
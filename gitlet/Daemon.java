@@ -0,0 +1,241 @@
+package gitlet;
+
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * Serves gitlet commands from a resident process
+ * "gitlet daemon" listens on the Unix socket .gitlet/daemon.sock and runs the commands
+ * clients send it one at a time, in the same JVM, so the packs, the commit graph, the
+ * config, the stat cache and the cache of rebuilt blobs stay loaded between commands.
+ * While the socket exists, Main forwards every command to it instead of running it.
+ * "gitlet daemon --stop" ends the daemon.
+ *
+ * A request is the working directory, the number of arguments and the arguments, each
+ * ended by a NUL byte; the reply is the output of the command, until the daemon closes
+ * the connection. Before each command the daemon drops the caches of anything another
+ * process changed (a gc or repack, the config or the stat cache's index), in this
+ * repository and in any remote it has read from. Branch and
+ * HEAD files are cached by Core and the commits by Commit, both bounded; a cached ref
+ * is only used while its file keeps its modification time, so a push from another
+ * repository is seen by the next command.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Daemon {
+
+    static final String SOCKET_FILE = "daemon.sock";
+
+    /**
+     * Ends the current request; thrown by Main.exit while the daemon is serving
+     */
+    static class Exit extends RuntimeException {
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static volatile boolean serving;
+    /**
+     * Last modified times of the files whose caches the daemon keeps, by repository
+     */
+    private static final HashMap<File, long[]> STAMPS = new HashMap<>();
+
+    static boolean isServing() {
+        return serving;
+    }
+
+    //* serves requests until a client sends "daemon --stop"/
+    public static void serve() {
+        File socket = join(Repository.GITLET_DIR, SOCKET_FILE);
+        if (socket.exists()) {
+            SocketChannel running = connect(socket);
+            if (running != null) {
+                System.out.println("A daemon is already running.");
+                try {
+                    running.close();
+                } catch (IOException io) {
+                    System.out.println("io error");
+                }
+                return;
+            }
+            socket.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            serving = true;
+            while (serving) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException io) {
+                    // a client that went away only loses its own request
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("io error");
+        } finally {
+            serving = false;
+            socket.delete();
+        }
+    }
+
+    private static void handle(SocketChannel client) throws IOException {
+        InputStream in = Channels.newInputStream(client);
+        String cwd = readField(in);
+        String[] args = new String[Integer.parseInt(readField(in))];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readField(in);
+        }
+        PrintStream original = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), 1 << 16), false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        try {
+            if (!cwd.equals(Repository.CWD.getPath())) {
+                System.out.println("The daemon serves another directory.");
+            } else if (args.length == 2 && args[0].equals("daemon") && args[1].equals("--stop")) {
+                serving = false;
+            } else {
+                refresh();
+                Main.run(args);
+            }
+        } catch (Exit exit) {
+            // the command ended early; what it printed so far is its whole output
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+            forget();
+        } catch (RuntimeException e) {
+            System.out.println(e);
+            forget();
+        } finally {
+            out.flush();
+            System.setOut(original);
+        }
+    }
+
+    //* drops the caches of files another process changed since the last request, in this
+    // repository and in every other one (a remote) that something is cached for/
+    private static void refresh() {
+        boolean changed = false;
+        for (File gitDir : cached()) {
+            long[] current = {join(gitDir, Pack.PACK_FOLDER).lastModified(),
+                join(gitDir, CommitGraph.GRAPH_FILE).lastModified(),
+                join(gitDir, Bitmaps.BITMAP_FILE).lastModified(),
+                join(gitDir, Config.CONFIG_FILE.getName()).lastModified()};
+            if (!Arrays.equals(current, STAMPS.put(gitDir, current))) {
+                forget(gitDir);
+                changed = true;
+            }
+        }
+        if (changed) {
+            Commit.clearCache();
+        }
+        StatCache.refresh();
+    }
+
+    private static Set<File> cached() {
+        Set<File> gitDirs = new HashSet<>();
+        gitDirs.add(Repository.GITLET_DIR);
+        gitDirs.addAll(Pack.loaded());
+        gitDirs.addAll(CommitGraph.loaded());
+        gitDirs.addAll(Bitmaps.loaded());
+        gitDirs.addAll(Config.loaded());
+        return gitDirs;
+    }
+
+    private static void forget(File gitDir) {
+        Pack.unload(gitDir);
+        CommitGraph.unload(gitDir);
+        Bitmaps.unload(gitDir);
+        Config.unload(gitDir);
+    }
+
+    //* drops every cache, after a command failed part way/
+    private static void forget() {
+        for (File gitDir : cached()) {
+            forget(gitDir);
+        }
+        STAMPS.clear();
+        Commit.clearCache();
+    }
+
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) > 0) {
+            field.write(b);
+        }
+        if (b < 0) {
+            throw new IOException("request ended early");
+        }
+        return field.toString(StandardCharsets.UTF_8);
+    }
+
+    private static SocketChannel connect(File socket) {
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException io) {
+            return null;
+        }
+    }
+
+    //* runs the command in the daemon of the repository in the working directory and
+    // copies its output. Returns false if no daemon is running there/
+    static boolean forward(String[] args) {
+        File socket = join(Repository.GITLET_DIR, SOCKET_FILE);
+        if (!socket.exists()) {
+            return false;
+        }
+        return request(socket, Repository.CWD.getPath(), args, System.out);
+    }
+
+    //* sends one request to the daemon listening on the socket and copies the reply to
+    // out. Returns false if nothing listens on the socket/
+    static boolean request(File socket, String cwd, String[] args, OutputStream out) {
+        SocketChannel channel = connect(socket);
+        if (channel == null) {
+            return false;
+        }
+        try (channel) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            writeField(request, cwd);
+            writeField(request, Integer.toString(args.length));
+            for (String arg : args) {
+                writeField(request, arg);
+            }
+            OutputStream toDaemon = Channels.newOutputStream(channel);
+            toDaemon.write(request.toByteArray());
+            toDaemon.flush();
+            Channels.newInputStream(channel).transferTo(out);
+            out.flush();
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+        return true;
+    }
+
+    private static void writeField(ByteArrayOutputStream request, String field) {
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        request.write(bytes, 0, bytes.length);
+        request.write(0);
+    }
+}
@@ -0,0 +1,174 @@
+package gitlet;
+
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static gitlet.Utils.*;
+
+/**
+ * Copy/insert deltas between two versions of a file
+ * A delta starts with the size of the result as a varint, followed by instructions:
+ * a byte 1..127 inserts that many literal bytes that follow it, and a COPY byte
+ * followed by a varint offset and a varint length copies that range of the base.
+ *
+ * The base is indexed in blocks of BLOCK bytes and the target is scanned with a
+ * rolling hash, so the delta is found in one pass over each side. A match is then
+ * extended in both directions byte by byte.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Delta {
+
+    private static final int BLOCK = 16;
+    private static final int COPY = 0x80;
+    private static final int MAX_INSERT = 127;
+    /**
+     * How many blocks with the same hash are tried at each position
+     */
+    private static final int MAX_CANDIDATES = 8;
+    private static final int PRIME = 31;
+    /**
+     * PRIME to the power BLOCK - 1, to take the first byte out of the rolling hash
+     */
+    private static final int OUT;
+
+    static {
+        int p = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        OUT = p;
+    }
+
+    //* returns a delta that turns base into target, or null if it would not be
+    // smaller than limit bytes/
+    public static byte[] create(byte[] base, byte[] target, int limit) {
+        int blocks = base.length / BLOCK;
+        int buckets = Integer.highestOneBit(Math.max(blocks, 1) * 2);
+        int[] heads = new int[buckets];
+        int[] next = new int[Math.max(blocks, 1)];
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            int slot = hash(base, b * BLOCK) & (buckets - 1);
+            next[b] = heads[slot] - 1;
+            heads[slot] = b + 1;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(limit, 1 << 16));
+        writeVarint(out, target.length);
+        int insertFrom = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int bestOffset = 0;
+            int bestLength = 0;
+            int bestBack = 0;
+            int tries = 0;
+            for (int b = heads[h & (buckets - 1)] - 1; b >= 0 && tries < MAX_CANDIDATES;
+                 b = next[b]) {
+                tries += 1;
+                int offset = b * BLOCK;
+                int length = 0;
+                while (offset + length < base.length && i + length < target.length
+                        && base[offset + length] == target[i + length]) {
+                    length += 1;
+                }
+                if (length < BLOCK) {
+                    continue;
+                }
+                int back = 0;
+                while (offset - back > 0 && i - back > insertFrom
+                        && base[offset - back - 1] == target[i - back - 1]) {
+                    back += 1;
+                }
+                if (length + back > bestLength + bestBack) {
+                    bestOffset = offset;
+                    bestLength = length;
+                    bestBack = back;
+                }
+            }
+            if (bestLength == 0) {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * OUT) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+                continue;
+            }
+            writeInsert(out, target, insertFrom, i - bestBack);
+            out.write(COPY);
+            writeVarint(out, bestOffset - bestBack);
+            writeVarint(out, bestLength + bestBack);
+            if (out.size() >= limit) {
+                return null;
+            }
+            i += bestLength;
+            insertFrom = i;
+            if (i + BLOCK <= target.length) {
+                h = hash(target, i);
+            }
+        }
+        writeInsert(out, target, insertFrom, target.length);
+        return out.size() < limit ? out.toByteArray() : null;
+    }
+
+    //* rebuilds the target from the base and the delta, which is read from its position/
+    public static byte[] apply(ByteBuffer base, ByteBuffer delta) {
+        byte[] result = new byte[(int) readVarint(delta)];
+        int at = 0;
+        while (delta.hasRemaining()) {
+            int op = delta.get() & 0xff;
+            if (op == COPY) {
+                int offset = (int) readVarint(delta);
+                int length = (int) readVarint(delta);
+                base.get(offset, result, at, length);
+                at += length;
+            } else if (op > 0 && op <= MAX_INSERT) {
+                delta.get(result, at, op);
+                at += op;
+            } else {
+                throw error("Corrupt delta.");
+            }
+        }
+        if (at != result.length) {
+            throw error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int j = 0; j < BLOCK; j += 1) {
+            h = h * PRIME + data[from + j];
+        }
+        return h;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get() & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
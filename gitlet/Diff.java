@@ -0,0 +1,407 @@
+package gitlet;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Line diffs between versions of a file
+ * The files are split into lines and every distinct line gets an int id, shared by all
+ * the files split together, so comparing two lines afterwards is comparing two ints and
+ * no line is ever copied into a String. hunks then finds a shortest edit script between
+ * two files with Myers' algorithm in its linear-space form: find the middle snake of the
+ * shortest path, split there and recurse on both halves, which takes O((N + M) D) time
+ * for D changed lines and O(N + M) space.
+ *
+ * Before the search, lines that do not appear in the other file at all are marked as
+ * changed and left out, as xdiff does. Such a line can never be part of a common
+ * subsequence, and in a heavily rewritten file they are most of the lines, so the search
+ * only ever sees the lines that could match. The common head and tail of every range
+ * are cut off before it is searched.
+ *
+ * Files with many changes between many repeated lines can still make D large, so like
+ * xdiff a search gives up after about sqrt(N + M) steps (at least MIN_COST) and splits
+ * at the point that got furthest instead. The diff is then still correct but may not be
+ * the shortest, and the whole search stays around O((N + M) sqrt(N + M)).
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Diff {
+
+    private static final int PRIME = 31;
+    /**
+     * Fewest steps a middle snake search takes before it may give up
+     */
+    private static final int MIN_COST = 256;
+
+    /**
+     * The lines of one file: line i is the bytes of data from starts[i] up to
+     * starts[i + 1], newline included, and ids[i] is its id
+     */
+    static class Lines {
+        private final ByteBuffer data;
+        private final int[] starts;
+        private final int[] ids;
+
+        private Lines(ByteBuffer data, int[] starts, int[] ids) {
+            this.data = data;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        int id(int line) {
+            return ids[line];
+        }
+
+        //* the bytes of the lines from up to to, sharing the file's buffer/
+        ByteBuffer slice(int from, int to) {
+            ByteBuffer s = data.duplicate();
+            s.limit(starts[to]);
+            s.position(starts[from]);
+            return s;
+        }
+    }
+
+    //* splits each file into lines and numbers the distinct lines of all of them/
+    static Lines[] split(ByteBuffer... files) {
+        ByteBuffer[] data = new ByteBuffer[files.length];
+        int[][] starts = new int[files.length][];
+        int[][] hashes = new int[files.length][];
+        int total = 0;
+        for (int f = 0; f < files.length; f += 1) {
+            data[f] = files[f].slice();
+            starts[f] = lineStarts(data[f]);
+            hashes[f] = lineHashes(data[f], starts[f]);
+            total += hashes[f].length;
+        }
+        int capacity = Integer.highestOneBit(Math.max(total, 1)) * 4;
+        int mask = capacity - 1;
+        int[] slots = new int[capacity];
+        int[] idHash = new int[total];
+        int[] idFile = new int[total];
+        int[] idLine = new int[total];
+        int next = 0;
+        Lines[] lines = new Lines[files.length];
+        for (int f = 0; f < files.length; f += 1) {
+            int[] ids = new int[hashes[f].length];
+            for (int i = 0; i < ids.length; i += 1) {
+                int h = hashes[f][i];
+                int slot = (h ^ (h >>> 16)) * 0x9e3779b9 & mask;
+                while (true) {
+                    int id = slots[slot] - 1;
+                    if (id < 0) {
+                        id = next;
+                        next += 1;
+                        slots[slot] = id + 1;
+                        idHash[id] = h;
+                        idFile[id] = f;
+                        idLine[id] = i;
+                        ids[i] = id;
+                        break;
+                    }
+                    if (idHash[id] == h && sameLine(data[f], starts[f], i,
+                            data[idFile[id]], starts[idFile[id]], idLine[id])) {
+                        ids[i] = id;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            }
+            lines[f] = new Lines(data[f], starts[f], ids);
+        }
+        return lines;
+    }
+
+    //* the offset of every line of the file, then the end of the file. A last line
+    // without a newline is a line of its own/
+    private static int[] lineStarts(ByteBuffer data) {
+        int size = data.limit();
+        int count = 0;
+        for (int i = 0; i < size; i += 1) {
+            if (data.get(i) == '\n') {
+                count += 1;
+            }
+        }
+        if (size > 0 && data.get(size - 1) != '\n') {
+            count += 1;
+        }
+        int[] starts = new int[count + 1];
+        int line = 1;
+        for (int i = 0; i < size; i += 1) {
+            if (data.get(i) == '\n' && line < count) {
+                starts[line] = i + 1;
+                line += 1;
+            }
+        }
+        starts[count] = size;
+        return starts;
+    }
+
+    private static int[] lineHashes(ByteBuffer data, int[] starts) {
+        int[] hashes = new int[starts.length - 1];
+        for (int line = 0; line < hashes.length; line += 1) {
+            int h = 0;
+            for (int i = starts[line]; i < starts[line + 1]; i += 1) {
+                h = h * PRIME + data.get(i);
+            }
+            hashes[line] = h;
+        }
+        return hashes;
+    }
+
+    private static boolean sameLine(ByteBuffer a, int[] aStarts, int aLine,
+                                    ByteBuffer b, int[] bStarts, int bLine) {
+        int aStart = aStarts[aLine];
+        int bStart = bStarts[bLine];
+        int length = aStarts[aLine + 1] - aStart;
+        if (length != bStarts[bLine + 1] - bStart) {
+            return false;
+        }
+        for (int i = 0; i < length; i += 1) {
+            if (a.get(aStart + i) != b.get(bStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //* the changes that turn a into b, in order, as four ints each: the range of lines
+    // of a that is replaced (start, end) and the range of b that replaces it. A range
+    // is empty for a pure insertion or deletion. Both must come from the same split/
+    static int[] hunks(Lines a, Lines b) {
+        int n = a.size();
+        int m = b.size();
+        int ids = 0;
+        for (int id : a.ids) {
+            ids = Math.max(ids, id + 1);
+        }
+        for (int id : b.ids) {
+            ids = Math.max(ids, id + 1);
+        }
+        boolean[] inA = new boolean[ids];
+        boolean[] inB = new boolean[ids];
+        for (int id : a.ids) {
+            inA[id] = true;
+        }
+        for (int id : b.ids) {
+            inB[id] = true;
+        }
+        boolean[] changedA = new boolean[n];
+        boolean[] changedB = new boolean[m];
+        int[] keptA = keep(a.ids, inB, changedA);
+        int[] keptB = keep(b.ids, inA, changedB);
+        new Myers(a.ids, keptA, changedA, b.ids, keptB, changedB).run();
+
+        int[] hunks = new int[16];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && !changedA[i] && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int startA = i;
+            int startB = j;
+            while (i < n && changedA[i]) {
+                i += 1;
+            }
+            while (j < m && changedB[j]) {
+                j += 1;
+            }
+            if (count + 4 > hunks.length) {
+                hunks = Arrays.copyOf(hunks, hunks.length * 2);
+            }
+            hunks[count] = startA;
+            hunks[count + 1] = i;
+            hunks[count + 2] = startB;
+            hunks[count + 3] = j;
+            count += 4;
+        }
+        return Arrays.copyOf(hunks, count);
+    }
+
+    //* the indexes of the lines whose id the other file has; the others are changed/
+    private static int[] keep(int[] ids, boolean[] inOther, boolean[] changed) {
+        int[] kept = new int[ids.length];
+        int count = 0;
+        for (int i = 0; i < ids.length; i += 1) {
+            if (inOther[ids[i]]) {
+                kept[count] = i;
+                count += 1;
+            } else {
+                changed[i] = true;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * One run of the linear-space Myers search over the kept lines of two files
+     */
+    private static class Myers {
+        private final int[] a;
+        private final int[] keptA;
+        private final boolean[] changedA;
+        private final int[] b;
+        private final int[] keptB;
+        private final boolean[] changedB;
+        /**
+         * Furthest x reached on each diagonal by the forward and the backward search
+         */
+        private final int[] forward;
+        private final int[] backward;
+        /**
+         * Steps after which a search splits at its furthest point
+         */
+        private final int maxCost;
+
+        Myers(int[] idsA, int[] keptA, boolean[] changedA,
+              int[] idsB, int[] keptB, boolean[] changedB) {
+            this.a = new int[keptA.length];
+            for (int i = 0; i < a.length; i += 1) {
+                a[i] = idsA[keptA[i]];
+            }
+            this.b = new int[keptB.length];
+            for (int i = 0; i < b.length; i += 1) {
+                b[i] = idsB[keptB[i]];
+            }
+            this.keptA = keptA;
+            this.changedA = changedA;
+            this.keptB = keptB;
+            this.changedB = changedB;
+            int length = 2 * ((a.length + b.length + 1) / 2) + 2;
+            forward = new int[length];
+            backward = new int[length];
+            maxCost = Math.max(MIN_COST, (int) Math.sqrt(a.length + b.length));
+        }
+
+        void run() {
+            compare(0, a.length, 0, b.length);
+        }
+
+        private void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                mark(aLo, aHi, bLo, bHi);
+                return;
+            }
+            long split = middleSnake(aLo, aHi, bLo, bHi);
+            int x = (int) (split >>> 32);
+            int y = (int) split;
+            if (split < 0 || (x == aLo && y == bLo) || (x == aHi && y == bHi)) {
+                mark(aLo, aHi, bLo, bHi);
+                return;
+            }
+            compare(aLo, x, bLo, y);
+            compare(x, aHi, y, bHi);
+        }
+
+        private void mark(int aLo, int aHi, int bLo, int bHi) {
+            for (int i = aLo; i < aHi; i += 1) {
+                changedA[keptA[i]] = true;
+            }
+            for (int i = bLo; i < bHi; i += 1) {
+                changedB[keptB[i]] = true;
+            }
+        }
+
+        //* a point (x << 32 | y) on a shortest edit path through the two ranges, found by
+        // searching from both ends until the paths overlap. After maxCost steps, the
+        // point either side got furthest from its end instead, or -1 if there is none/
+        private long middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int maxD = (n + m + 1) / 2;
+            int limit = Math.min(maxD, maxCost);
+            int offset = maxD;
+            // only the diagonals a search of limit steps can reach are reset and read
+            int low = offset - limit;
+            int high = offset + limit + 1;
+            Arrays.fill(forward, low, high, -1);
+            Arrays.fill(backward, low, high, -1);
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            int delta = n - m;
+            boolean front = (delta & 1) != 0;
+            // diagonals that ran off the edge are not searched again
+            int fStart = 0;
+            int fEnd = 0;
+            int bStart = 0;
+            int bEnd = 0;
+            long best = -1;
+            int bestProgress = 0;
+            for (int d = 0; d < limit; d += 1) {
+                for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                    int i = offset + k;
+                    int x = k == -d || (k != d && forward[i - 1] < forward[i + 1])
+                            ? forward[i + 1] : forward[i - 1] + 1;
+                    int y = x - k;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[i] = x;
+                    if (x > n) {
+                        fEnd += 2;
+                    } else if (y > m) {
+                        fStart += 2;
+                    } else {
+                        int j = offset + delta - k;
+                        if (front && j >= low && j < high && backward[j] != -1
+                                && x >= n - backward[j]) {
+                            return ((long) (aLo + x) << 32) | (bLo + y);
+                        }
+                        if (x + y > bestProgress && x + y < n + m) {
+                            bestProgress = x + y;
+                            best = ((long) (aLo + x) << 32) | (bLo + y);
+                        }
+                    }
+                }
+                for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                    int i = offset + k;
+                    int x = k == -d || (k != d && backward[i - 1] < backward[i + 1])
+                            ? backward[i + 1] : backward[i - 1] + 1;
+                    int y = x - k;
+                    while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    backward[i] = x;
+                    if (x > n) {
+                        bEnd += 2;
+                    } else if (y > m) {
+                        bStart += 2;
+                    } else {
+                        int j = offset + delta - k;
+                        if (!front && j >= low && j < high && forward[j] != -1) {
+                            int fx = forward[j];
+                            int fy = fx - (j - offset);
+                            if (fx >= n - x) {
+                                return ((long) (aLo + fx) << 32) | (bLo + fy);
+                            }
+                        }
+                        if (x + y > bestProgress && x + y < n + m) {
+                            bestProgress = x + y;
+                            best = ((long) (aHi - x) << 32) | (bHi - y);
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package gitlet;
+
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the history of a commit along its first parents
+ * Reads one commit per step and keeps only the id of the next one, so walking
+ * costs the same memory however deep the history is.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class History implements Iterator<Commit>, Iterable<Commit> {
+
+    private String next;
+
+    public History(String start) {
+        this.next = start;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Commit next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        Commit c = Commit.getCommit(next);
+        next = c.getParents(0);
+        return c;
+    }
+
+    @Override
+    public Iterator<Commit> iterator() {
+        return this;
+    }
+}
@@ -1,6 +1,10 @@
 package gitlet;
 
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
@@ -13,15 +17,24 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        boolean startsDaemon = args.length == 1 && args[0].equals("daemon");
+        if (args.length > 0 && !startsDaemon && Daemon.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    //* runs one command in this process/
+    static void run(String[] args) {
         if (args.length == 0) {
             System.out.print("Please enter a command.");
-            System.exit(0);
+            exit();
         }
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
                 Repository.initialize();
-                System.exit(0);
+                exit();
                 break;
             default:
                 break;
@@ -30,15 +43,68 @@ public class Main {
             initizialized(args);
         } else {
             System.out.print("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            exit();
+        }
+    }
+
+    //* ends the command after an error (or a command that is done early). Inside the
+    // daemon this only ends the current request/
+    static void exit() {
+        if (Daemon.isServing()) {
+            throw new Daemon.Exit();
+        }
+        System.exit(0);
+    }
+
+    //* log [-n COUNT] [--skip COUNT] [--since DATE], where DATE is yyyy-MM-dd,
+    // yyyy-MM-dd HH:mm:ss or seconds since the epoch/
+    private static void log(String[] args) {
+        int limit = -1;
+        int skip = 0;
+        long since = Long.MIN_VALUE;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException();
+                }
+                switch (args[i]) {
+                    case "-n":
+                        limit = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--skip":
+                        skip = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--since":
+                        since = parseDate(args[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | ParseException e) {
+            System.out.println("Incorrect operands.");
+            exit();
+        }
+        Repository.log(limit, skip, since);
+    }
+
+    private static long parseDate(String date) throws ParseException {
+        if (date.matches("\\d+")) {
+            return Long.parseLong(date);
         }
+        String pattern = date.contains(":") ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd";
+        return new SimpleDateFormat(pattern).parse(date).getTime() / 1000;
     }
 
     public static void initizialized(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "add":
-                Repository.add(args[1]);
+                if (args.length < 2) {
+                    System.out.println("Incorrect operands.");
+                    exit();
+                }
+                Repository.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 if (args.length == 2 && args[1].length() > 0) {
@@ -56,10 +122,12 @@ public class Main {
                     Repository.doCheckout(args[1], args[3]);
                 } else {
                     System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    exit();
                 }
                 break;
             case "log":
+                log(args);
+                break;
             case "global-log":
                 Repository.getLog(firstArg);
                 break;
@@ -80,7 +148,7 @@ public class Main {
                     Repository.removeBranch(args[1]);
                 } else {
                     System.out.println("Cannot remove the current branch.");
-                    System.exit(0);
+                    exit();
                 }
                 break;
             case "reset":
@@ -89,6 +157,32 @@ public class Main {
             case "merge":
                 Repository.doMerge(args[1]);
                 break;
+            case "merge-base":
+                if (args.length == 3) {
+                    Repository.mergeBase(args[1], args[2], false);
+                } else if (args.length == 4 && args[1].equals("--all")) {
+                    Repository.mergeBase(args[2], args[3], true);
+                } else {
+                    System.out.println("Incorrect operands.");
+                    exit();
+                }
+                break;
+            case "gc":
+            case "repack":
+                Pack.gc();
+                break;
+            case "migrate":
+                Repository.migrate();
+                break;
+            case "daemon":
+                if (args.length == 1) {
+                    Daemon.serve();
+                } else if (args.length == 2 && args[1].equals("--stop")) {
+                    System.out.println("No daemon is running.");
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
             case "add-remote":
                 Remote.addRemote(args[1], args[2]);
                 break;
@@ -107,7 +201,7 @@ public class Main {
                 break;
             default:
                 System.out.print("No command with that name exists");
-                System.exit(0);
+                exit();
         }
     }
 }
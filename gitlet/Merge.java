@@ -3,18 +3,25 @@ package gitlet;
 
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.PriorityQueue;
-import java.util.TreeMap;
+import java.util.List;
 
 import static gitlet.Repository.CWD;
 import static gitlet.Utils.*;
 
 /**
  * Does some merge functions
- * Finds Latest Common Ancestor using a BFS helper method and handles conflict cases
+ * Finds Latest Common Ancestor on the commit graph and merges the files both branches
+ * changed line by line: the changes of each side against the common ancestor are found
+ * with Diff, changes of one side only are applied as they are, and only the ranges of
+ * lines that both sides changed differently end up between conflict markers. Lines are
+ * compared by their ids and the result is written from slices of the mapped blobs, so
+ * no file is ever decoded into Strings.
  *
  * @author Medhaav Chandra Mahesh
  *
@@ -22,97 +29,182 @@ import static gitlet.Utils.*;
 
 public class Merge {
 
-    private static TreeMap<Integer, Commit> currentAncestors;
-    private static Commit LCA;
-
+    //* finds the latest common ancestor of the two commits (see MergeBase), or null if
+    // they have no common history/
     public static Commit findLCA(Commit current, Commit other) {
-        currentAncestors = new TreeMap<>();
-        LCA = Repository.initialCommit;
-        currentAncestors.put(0, current);
-        commitBFS(current, 1);
-        commitBFS(other, 2);
-        return LCA;
+        CommitGraph graph = CommitGraph.load(Repository.GITLET_DIR);
+        int base = new MergeBase(graph).best(graph.find(current.getId()),
+                graph.find(other.getId()));
+        if (base == CommitGraph.NONE) {
+            return null;
+        }
+        return Commit.getCommit(graph.id(base));
     }
 
-    private static void commitBFS(Commit commit, int goTo) {
-        TreeMap<Integer, Commit> ancestors = new TreeMap<>();
-        ArrayList<Integer> edgeTo = new ArrayList<>();
-        PriorityQueue<Integer> fringe = new PriorityQueue<>();
-        ancestors.put(0, commit);
-        helper(0, commit.getId(), goTo);
-        fringe.add(0);
-        int i = 1;
-        while (!fringe.isEmpty()) {
-            if (LCA != Repository.initialCommit) {
-                break;
+    //* merges the versions of the file in the two commits against the one in base (which
+    // may be null) into the working file and stages it. Returns true if the result has
+    // conflict markers. If one side deleted the file and the other changed it, the whole
+    // of both versions is the conflict/
+    public static boolean mergeFile(Commit base, Commit current, Commit other,
+                                    String fileName) {
+        String baseHash = base == null ? null : base.getBlobs().get(fileName);
+        String currentHash = current.getBlobs().get(fileName);
+        String otherHash = other.getBlobs().get(fileName);
+        if (currentHash == null ? otherHash == null : currentHash.equals(otherHash)) {
+            return false;
+        }
+        File file = join(CWD, fileName);
+        if (currentHash == null || otherHash == null) {
+            ByteBuffer currentContents = currentHash == null
+                    ? marker("\n") : Blobs.mapBlob(currentHash);
+            ByteBuffer otherContents = otherHash == null
+                    ? ByteBuffer.allocate(0) : Blobs.mapBlob(otherHash);
+            writeConflict(file, currentContents, otherContents);
+            Repository.add(fileName);
+            return true;
+        }
+        ByteBuffer baseContents = baseHash == null
+                ? ByteBuffer.allocate(0) : Blobs.mapBlob(baseHash);
+        List<ByteBuffer> parts = new ArrayList<>();
+        boolean conflict = merge3(baseContents, Blobs.mapBlob(currentHash),
+                Blobs.mapBlob(otherHash), parts);
+        write(file, parts.toArray(new ByteBuffer[0]));
+        Repository.add(fileName);
+        return conflict;
+    }
+
+    //* three-way merge of the lines of the two versions against base into parts (slices
+    // of the three buffers). Changes of one side are taken as they are; where the
+    // changes of both sides overlap or touch, the lines of both go between conflict
+    // markers unless they are the same. Returns true if there was a conflict/
+    static boolean merge3(ByteBuffer base, ByteBuffer current, ByteBuffer other,
+                          List<ByteBuffer> parts) {
+        Diff.Lines[] lines = Diff.split(base, current, other);
+        Diff.Lines ours = lines[1];
+        Diff.Lines theirs = lines[2];
+        int[] hunksOurs = Diff.hunks(lines[0], ours);
+        int[] hunksTheirs = Diff.hunks(lines[0], theirs);
+        boolean conflict = false;
+        int i = 0;
+        int j = 0;
+        // how far each side's line numbers are ahead of base's after its last hunk
+        int shiftOurs = 0;
+        int shiftTheirs = 0;
+        int done = 0;
+        while (i < hunksOurs.length || j < hunksTheirs.length) {
+            int lo;
+            if (j >= hunksTheirs.length) {
+                lo = hunksOurs[i];
+            } else if (i >= hunksOurs.length) {
+                lo = hunksTheirs[j];
+            } else {
+                lo = Math.min(hunksOurs[i], hunksTheirs[j]);
             }
-            int v = fringe.remove();
-            if (ancestors.get(v) != null) {
-                for (String w : ancestors.get(v).getParents()) {
-                    if (w != null && !ancestors.containsValue(Commit.getCommit(w))) {
-                        ancestors.put(i, Commit.getCommit(w));
-                        helper(i, w, goTo);
-                        fringe.add(i);
-                        edgeTo.add(v);
-                        i += 1;
-                        if (LCA != Repository.initialCommit) {
-                            break;
-                        }
-                    }
+            int hi = lo;
+            int firstOurs = i;
+            int firstTheirs = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < hunksOurs.length && hunksOurs[i] <= hi) {
+                    hi = Math.max(hi, hunksOurs[i + 1]);
+                    i += 4;
+                    grew = true;
                 }
+                while (j < hunksTheirs.length && hunksTheirs[j] <= hi) {
+                    hi = Math.max(hi, hunksTheirs[j + 1]);
+                    j += 4;
+                    grew = true;
+                }
+            }
+            add(parts, ours.slice(done + shiftOurs, lo + shiftOurs));
+            int oursLo = lo + shiftOurs;
+            int theirsLo = lo + shiftTheirs;
+            if (i > firstOurs) {
+                shiftOurs = hunksOurs[i - 1] - hunksOurs[i - 3];
             }
+            if (j > firstTheirs) {
+                shiftTheirs = hunksTheirs[j - 1] - hunksTheirs[j - 3];
+            }
+            int oursHi = hi + shiftOurs;
+            int theirsHi = hi + shiftTheirs;
+            if (j == firstTheirs || sameLines(ours, oursLo, oursHi, theirs, theirsLo, theirsHi)) {
+                add(parts, ours.slice(oursLo, oursHi));
+            } else if (i == firstOurs) {
+                add(parts, theirs.slice(theirsLo, theirsHi));
+            } else {
+                conflict(parts, ours.slice(oursLo, oursHi), theirs.slice(theirsLo, theirsHi));
+                conflict = true;
+            }
+            done = hi;
         }
+        add(parts, ours.slice(done + shiftOurs, ours.size()));
+        return conflict;
     }
 
-    private static void helper(int pos, String ancestor, int goTo) {
-        if (goTo == 1) {
-            currentAncestors.put(pos, Commit.getCommit(ancestor));
-        } else if (goTo == 2) {
-            Commit otherParent = Commit.getCommit(ancestor);
-            if (currentAncestors.containsValue(otherParent) && otherParent != null) {
-                LCA = otherParent;
+    private static boolean sameLines(Diff.Lines a, int aLo, int aHi,
+                                     Diff.Lines b, int bLo, int bHi) {
+        if (aHi - aLo != bHi - bLo) {
+            return false;
+        }
+        for (int k = 0; k < aHi - aLo; k += 1) {
+            if (a.id(aLo + k) != b.id(bLo + k)) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private static void add(List<ByteBuffer> parts, ByteBuffer part) {
+        if (part.hasRemaining()) {
+            parts.add(part);
+        }
+    }
+
+    //* adds both versions between conflict markers, ending each version with a newline
+    // so that no marker lands on the same line as the last line of content/
+    private static void conflict(List<ByteBuffer> parts, ByteBuffer current, ByteBuffer other) {
+        parts.add(marker("<<<<<<< HEAD\n"));
+        addLine(parts, current);
+        parts.add(marker("=======\n"));
+        addLine(parts, other);
+        parts.add(marker(">>>>>>>\n"));
+    }
+
+    private static void addLine(List<ByteBuffer> parts, ByteBuffer part) {
+        add(parts, part);
+        if (part.hasRemaining() && part.get(part.limit() - 1) != '\n') {
+            parts.add(marker("\n"));
+        }
     }
 
-    public static boolean conflict(Commit current, Commit other, String fileName) {
-        boolean fileExists = true;
-        HashMap<String, String> currentBlobs = current.getBlobs();
-        HashMap<String, String> otherBlobs = other.getBlobs();
-        String currentContents = "\n";
-        String otherContents = "";
-        if (currentBlobs.containsKey(fileName)) {
-            String currentHash = currentBlobs.get(fileName);
-            currentContents = new String(Blobs.readBlob(currentHash), StandardCharsets.UTF_8);
-            if (otherBlobs.containsKey(fileName)) {
-                if (!otherBlobs.containsValue(currentHash)) {
-                    String otherHash = otherBlobs.get(fileName);
-                    otherContents = new String(Blobs.readBlob(otherHash), StandardCharsets.UTF_8);
-                    File file = join(CWD, fileName);
-                    writeContents(file, "<<<<<<< HEAD\n", currentContents,
-                            "=======\n", otherContents, ">>>>>>>\n");
-                    Repository.add(fileName);
+    //* writes both versions between conflict markers straight from the mapped blobs/
+    private static void writeConflict(File file, ByteBuffer current, ByteBuffer other) {
+        List<ByteBuffer> parts = new ArrayList<>();
+        conflict(parts, current.duplicate(), other.duplicate());
+        write(file, parts.toArray(new ByteBuffer[0]));
+    }
+
+    //* writes the parts in order with gathering writes, each one starting at the first
+    // part not yet written in full/
+    private static void write(File file, ByteBuffer[] parts) {
+        file.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int first = 0;
+            while (first < parts.length) {
+                out.write(parts, first, parts.length - first);
+                while (first < parts.length && !parts[first].hasRemaining()) {
+                    first += 1;
                 }
-            } else {
-                File file = join(CWD, fileName);
-                writeContents(file, "<<<<<<< HEAD\n", currentContents,
-                        "=======\n", otherContents, ">>>>>>>\n");
-                Repository.add(fileName);
-            }
-        } else {
-            if (otherBlobs.containsKey(fileName)) {
-                Repository.doCheckout(other.getId(), fileName);
-                String otherHash = otherBlobs.get(fileName);
-                otherContents = new String(Blobs.readBlob(otherHash), StandardCharsets.UTF_8);
-                File file = join(CWD, fileName);
-                writeContents(file, "<<<<<<< HEAD\n", currentContents,
-                        "=======\n", otherContents, ">>>>>>>\n");
-                Repository.add(fileName);
-            } else {
-                fileExists = false;
             }
+        } catch (IOException io) {
+            System.out.println("io error");
         }
-        return fileExists;
+    }
+
+    private static ByteBuffer marker(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
     }
 
 }
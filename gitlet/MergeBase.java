@@ -0,0 +1,101 @@
+package gitlet;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the merge bases of two commits on the commit graph
+ * Does a two-colour walk ("paint down"): the first commit is painted with one colour,
+ * the second with the other, and colours flow down to the parents in generation order,
+ * highest first. A commit reached by both colours is a common ancestor; it is recorded
+ * and everything below it is marked stale, and the walk stops once only stale commits
+ * are left. Each commit is visited at most once per colour, so the walk is linear in
+ * the part of the graph above the merge bases.
+ *
+ * Holds no static state, so any number of walks can run at the same time.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class MergeBase {
+
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+    private static final byte STALE = 4;
+    private static final byte RESULT = 8;
+
+    private final CommitGraph graph;
+
+    public MergeBase(CommitGraph graph) {
+        this.graph = graph;
+    }
+
+    //* returns every best common ancestor of the two commits, highest generation first.
+    // Because a commit is only taken off the queue after all of its descendants, a base
+    // below another base is already stale when it is reached and never reported/
+    public List<Integer> bases(int a, int b) {
+        if (a == b) {
+            List<Integer> result = new ArrayList<>();
+            result.add(a);
+            return result;
+        }
+        return paintDown(a, b);
+    }
+
+    //* returns one best common ancestor, or CommitGraph.NONE if the histories are unrelated/
+    public int best(int a, int b) {
+        List<Integer> bases = bases(a, b);
+        return bases.isEmpty() ? CommitGraph.NONE : bases.get(0);
+    }
+
+    private List<Integer> paintDown(int a, int b) {
+        byte[] flags = new byte[graph.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(graph.generation(y), graph.generation(x));
+            return cmp != 0 ? cmp : Integer.compare(x, y);
+        });
+        List<Integer> candidates = new ArrayList<>();
+        flags[a] = PARENT1;
+        flags[b] = PARENT2;
+        queue.add(a);
+        queue.add(b);
+        int live = 2;
+        while (live > 0) {
+            int v = queue.remove();
+            int paint = flags[v] & (PARENT1 | PARENT2 | STALE);
+            if ((paint & STALE) == 0) {
+                live -= 1;
+            }
+            if (paint == (PARENT1 | PARENT2)) {
+                if ((flags[v] & RESULT) == 0) {
+                    flags[v] |= RESULT;
+                    candidates.add(v);
+                }
+                paint |= STALE;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int p = graph.parent(v, which);
+                if (p == CommitGraph.NONE || (flags[p] & paint) == paint) {
+                    continue;
+                }
+                // a parent is queued once, the first time it is painted; its flags are
+                // final by the time it is taken off the queue
+                boolean wasQueued = (flags[p] & (PARENT1 | PARENT2)) != 0;
+                boolean wasLive = wasQueued && (flags[p] & STALE) == 0;
+                flags[p] |= paint;
+                boolean isLive = (flags[p] & STALE) == 0;
+                if (!wasQueued) {
+                    queue.add(p);
+                    if (isLive) {
+                        live += 1;
+                    }
+                } else if (wasLive && !isLive) {
+                    live -= 1;
+                }
+            }
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,365 @@
+package gitlet;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Resolves stored objects of a repository
+ * Looks an object up as a loose file first and then in the packs,
+ * so callers never need to know where an object actually lives.
+ * In repositories of CODEC_OBJECTS format every stored object starts with the byte
+ * of its Codec, which is taken off (and the contents decoded) here; repositories
+ * created before that store the bare contents.
+ * Loose objects live in a folder per kind, fanned out by the first two hex digits of
+ * their id (commits/ab/cdef...) so no folder grows past a few thousand entries.
+ * Objects written flat by older versions are still found; migrate moves them.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class ObjectStore {
+
+    /**
+     * Folder name (and pack type) of commit objects
+     */
+    static final String COMMITS = "commits";
+    /**
+     * Folder name (and pack type) of blob objects
+     */
+    static final String BLOBS = "blobs";
+    /**
+     * Folder name (and pack type) of tree objects
+     */
+    static final String TREES = "trees";
+    /**
+     * Folder name (and pack type) of blobs stored as a delta against another blob
+     */
+    static final String DELTAS = "deltas";
+    /**
+     * Values of object.format in the config
+     */
+    static final int RAW_OBJECTS = 1;
+    static final int CODEC_OBJECTS = 2;
+    /**
+     * Largest compressed object map inflates onto the heap rather than into a file
+     */
+    private static final int MAX_HEAP_INFLATE = 1 << 20;
+
+    //* the file of a loose object: where it is, or where it goes if it does not exist/
+    public static File looseFile(File gitDir, String kind, String id) {
+        if (id.length() <= 2) {
+            return join(gitDir, kind, id);
+        }
+        File fanned = join(gitDir, kind, id.substring(0, 2), id.substring(2));
+        if (!fanned.exists()) {
+            File flat = join(gitDir, kind, id);
+            if (flat.isFile()) {
+                return flat;
+            }
+        }
+        return fanned;
+    }
+
+    //* how the objects of that repository are stored/
+    static int format(File gitDir) {
+        return Config.getInt(gitDir, Config.OBJECT_FORMAT, RAW_OBJECTS);
+    }
+
+    //* the codec new objects of that repository are written with/
+    static Codec codec(File gitDir) {
+        return Codec.named(Config.get(gitDir, Config.OBJECT_CODEC, Codec.NONE.getName()));
+    }
+
+    public static boolean contains(File gitDir, String kind, String id) {
+        return looseFile(gitDir, kind, id).exists() || Pack.find(gitDir, kind, id) != null;
+    }
+
+    //* returns the stored bytes of the object or null if it does not exist/
+    public static byte[] read(File gitDir, String kind, String id) {
+        File loose = looseFile(gitDir, kind, id);
+        if (loose.exists() && format(gitDir) == RAW_OBJECTS) {
+            return readContents(loose);
+        }
+        ByteBuffer stored = loose.exists() ? mapFile(loose) : Pack.find(gitDir, kind, id);
+        if (stored == null) {
+            return null;
+        }
+        if (format(gitDir) == CODEC_OBJECTS) {
+            return Codec.decode(stored);
+        }
+        byte[] contents = new byte[stored.remaining()];
+        stored.get(contents);
+        return contents;
+    }
+
+    //* returns a read-only mapped view of the object without copying it to the heap,
+    // or null if it does not exist. Small compressed objects are inflated onto the heap;
+    // larger ones are inflated chunk by chunk into a temporary file, which is mapped/
+    public static ByteBuffer map(File gitDir, String kind, String id) {
+        File loose = looseFile(gitDir, kind, id);
+        ByteBuffer stored = loose.exists() ? mapFile(loose) : Pack.find(gitDir, kind, id);
+        if (stored == null || format(gitDir) == RAW_OBJECTS) {
+            return stored;
+        }
+        if (Codec.inflatedSize(stored) <= MAX_HEAP_INFLATE) {
+            return Codec.view(stored);
+        }
+        File temp = join(gitDir, "tmp-" + System.nanoTime() + ".inflated");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW)) {
+            Codec.decode(stored, out);
+        } catch (IOException io) {
+            temp.delete();
+            throw error("io error");
+        }
+        ByteBuffer contents = mapFile(temp);
+        // the mapping outlives the file where the system allows deleting a mapped file
+        if (!temp.delete()) {
+            temp.deleteOnExit();
+        }
+        return contents;
+    }
+
+    static ByteBuffer mapFile(File f) {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException io) {
+            throw error("io error");
+        }
+    }
+
+    //* writes the object into the target file, letting the kernel move the bytes
+    // (transferTo for loose objects, a mapped slice for packed ones). Compressed objects
+    // are inflated chunk by chunk into the target/
+    public static boolean copyTo(File gitDir, String kind, String id, File target) {
+        File loose = looseFile(gitDir, kind, id);
+        ByteBuffer packed = loose.exists() ? null : Pack.find(gitDir, kind, id);
+        if (!loose.exists() && packed == null) {
+            return false;
+        }
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (format(gitDir) == CODEC_OBJECTS) {
+                Codec.decode(packed != null ? packed : mapFile(loose), out);
+            } else if (packed != null) {
+                while (packed.hasRemaining()) {
+                    out.write(packed);
+                }
+            } else {
+                copyFile(loose, out);
+            }
+        } catch (IOException io) {
+            throw error("io error");
+        }
+        return true;
+    }
+
+    //* copies a file into a loose object with transferTo (or through the codec), so its
+    // contents never reach the heap/
+    public static void writeLoose(File gitDir, String kind, String id, File source) {
+        File target = looseFile(gitDir, kind, id);
+        target.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (format(gitDir) == CODEC_OBJECTS) {
+                codec(gitDir).encode(source, out);
+            } else {
+                copyFile(source, out);
+            }
+        } catch (IOException io) {
+            throw error("io error");
+        }
+    }
+
+    //* stores the contents as a loose object of that repository/
+    public static void write(File gitDir, String kind, String id, byte[] contents) {
+        File target = looseFile(gitDir, kind, id);
+        target.getParentFile().mkdirs();
+        if (format(gitDir) == CODEC_OBJECTS) {
+            contents = codec(gitDir).encode(contents);
+        }
+        writeContents(target, contents);
+    }
+
+    //* copies the object from one repository into the other as a loose object and returns
+    // its file. The stored bytes are copied as they are when both repositories store
+    // objects the same way, and decoded and written again otherwise/
+    public static File copy(File from, File to, String kind, String id) {
+        File target = looseFile(to, kind, id);
+        if (target.exists()) {
+            return target;
+        }
+        if (format(from) != format(to)) {
+            byte[] contents = read(from, kind, id);
+            if (contents == null) {
+                throw error("Missing object %s.", id);
+            }
+            write(to, kind, id, contents);
+            return target;
+        }
+        File loose = looseFile(from, kind, id);
+        ByteBuffer packed = loose.exists() ? null : Pack.find(from, kind, id);
+        if (!loose.exists() && packed == null) {
+            throw error("Missing object %s.", id);
+        }
+        target.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (packed != null) {
+                while (packed.hasRemaining()) {
+                    out.write(packed);
+                }
+            } else {
+                copyFile(loose, out);
+            }
+        } catch (IOException io) {
+            throw error("io error");
+        }
+        return target;
+    }
+
+    //* the stored bytes of the object of repository from, as repository to stores them.
+    // They are a view of the stored bytes when both repositories store objects the same way/
+    static ByteBuffer stored(File from, File to, String kind, String id) {
+        if (format(from) == format(to)) {
+            File loose = looseFile(from, kind, id);
+            ByteBuffer stored = loose.exists() ? mapFile(loose) : Pack.find(from, kind, id);
+            if (stored != null) {
+                return stored;
+            }
+        } else {
+            byte[] contents = read(from, kind, id);
+            if (contents != null) {
+                return ByteBuffer.wrap(format(to) == CODEC_OBJECTS
+                        ? codec(to).encode(contents) : contents);
+            }
+        }
+        throw error("Missing object %s.", id);
+    }
+
+    //* flushes the file (or directory) to the disk/
+    public static void force(File f) {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException io) {
+            throw error("io error");
+        }
+    }
+
+    private static void copyFile(File source, FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            long done = 0;
+            while (done < size) {
+                done += in.transferTo(done, size - done, out);
+            }
+        }
+    }
+
+    //* lists the ids of every loose and packed object of that kind in sorted order/
+    public static List<String> list(File gitDir, String kind) {
+        TreeSet<String> ids = new TreeSet<>(listLoose(gitDir, kind));
+        ids.addAll(Pack.list(gitDir, kind));
+        return new ArrayList<>(ids);
+    }
+
+    //* the ids of the objects of that kind that start with the prefix, in sorted order.
+    // Only the one fan-out folder of the prefix is listed, and packs are binary searched/
+    public static List<String> withPrefix(File gitDir, String kind, String prefix) {
+        TreeSet<String> ids = new TreeSet<>();
+        if (prefix.isEmpty() || !prefix.matches("[0-9a-f]+")) {
+            return new ArrayList<>();
+        }
+        List<String> loose;
+        if (prefix.length() >= 2) {
+            loose = new ArrayList<>();
+            List<String> fanned = plainFilenamesIn(join(gitDir, kind, prefix.substring(0, 2)));
+            if (fanned != null) {
+                for (String rest : fanned) {
+                    loose.add(prefix.substring(0, 2) + rest);
+                }
+            }
+            List<String> flat = plainFilenamesIn(join(gitDir, kind));
+            if (flat != null) {
+                loose.addAll(flat);
+            }
+        } else {
+            loose = listLoose(gitDir, kind);
+        }
+        for (String id : loose) {
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+        ids.addAll(Pack.withPrefix(gitDir, kind, prefix));
+        return new ArrayList<>(ids);
+    }
+
+    //* deletes the loose object, and its fan-out folder once that is empty. Returns
+    // false if there was no such loose object/
+    public static boolean deleteLoose(File gitDir, String kind, String id) {
+        File loose = looseFile(gitDir, kind, id);
+        if (!loose.delete()) {
+            return false;
+        }
+        if (!loose.getParentFile().equals(join(gitDir, kind))) {
+            loose.getParentFile().delete();
+        }
+        return true;
+    }
+
+    //* lists the ids of the loose objects of that kind, fanned out or flat/
+    public static List<String> listLoose(File gitDir, String kind) {
+        List<String> ids = new ArrayList<>();
+        File folder = join(gitDir, kind);
+        List<String> flat = plainFilenamesIn(folder);
+        if (flat != null) {
+            ids.addAll(flat);
+        }
+        File[] fanOut = folder.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+        if (fanOut == null) {
+            return ids;
+        }
+        for (File dir : fanOut) {
+            List<String> rest = plainFilenamesIn(dir);
+            for (String name : rest) {
+                ids.add(dir.getName() + name);
+            }
+        }
+        return ids;
+    }
+
+    //* moves the loose objects older versions wrote flat into the fan-out folders/
+    public static void fanOut(File gitDir) {
+        for (String kind : new String[]{COMMITS, BLOBS, TREES, DELTAS}) {
+            List<String> flat = plainFilenamesIn(join(gitDir, kind));
+            if (flat == null) {
+                continue;
+            }
+            for (String id : flat) {
+                if (Pack.toBytes(id) == null) {
+                    continue;
+                }
+                File target = join(gitDir, kind, id.substring(0, 2), id.substring(2));
+                target.getParentFile().mkdir();
+                try {
+                    Files.move(join(gitDir, kind, id).toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException io) {
+                    throw error("io error");
+                }
+            }
+        }
+    }
+}
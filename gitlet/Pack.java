@@ -0,0 +1,441 @@
+package gitlet;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * Stores many objects in a single pack
+ * A pack is an append-only data file (pack-ID.pack) with the stored bytes of each object
+ * and an index (pack-ID.idx) of fixed size entries sorted by object id. Both files are
+ * memory-mapped, so a lookup is a binary search on the index and a slice of the data.
+ * gc folds every loose object and every older pack into new packs, and rewrites the
+ * commit graph.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Pack {
+
+    /**
+     * Folder inside .gitlet where packs are stored
+     */
+    static final String PACK_FOLDER = "packs";
+    /**
+     * Magic numbers ("GPAK" and "GIDX") and version of the pack files
+     */
+    private static final int PACK_MAGIC = 0x4750414b;
+    private static final int INDEX_MAGIC = 0x47494458;
+    private static final int VERSION = 1;
+    /**
+     * Both files start with magic, version and object count
+     */
+    private static final int HEADER_SIZE = 12;
+    /**
+     * An index entry is the 20 byte id, the type, the offset (long) and the length (int)
+     */
+    private static final int ENTRY_SIZE = 33;
+    /**
+     * A new pack is started once the data file would grow past this size
+     */
+    private static final long MAX_PACK_SIZE = 1L << 30;
+    /**
+     * Packs already mapped, by the .gitlet directory they belong to
+     */
+    private static final HashMap<File, List<Pack>> LOADED = new HashMap<>();
+
+    private final File indexFile;
+    private final File dataFile;
+    private final ByteBuffer index;
+    private final ByteBuffer data;
+    private final int count;
+
+    private Pack(File indexFile, File dataFile) throws IOException {
+        this.indexFile = indexFile;
+        this.dataFile = dataFile;
+        this.index = map(indexFile);
+        this.data = map(dataFile);
+        if (index.getInt(0) != INDEX_MAGIC || data.getInt(0) != PACK_MAGIC
+                || index.getInt(4) != VERSION) {
+            throw new IOException("corrupt pack " + dataFile.getName());
+        }
+        this.count = index.getInt(8);
+    }
+
+    private static ByteBuffer map(File f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    //* returns a read-only view of the stored bytes of the object, or null if no pack has it/
+    public static ByteBuffer find(File gitDir, String kind, String id) {
+        byte[] key = toBytes(id);
+        if (key == null) {
+            return null;
+        }
+        byte type = (byte) kind.charAt(0);
+        for (Pack pack : packsOf(gitDir)) {
+            int i = pack.search(key, type);
+            if (i >= 0) {
+                return pack.slice(i);
+            }
+        }
+        return null;
+    }
+
+    public static List<String> list(File gitDir, String kind) {
+        byte type = (byte) kind.charAt(0);
+        List<String> ids = new ArrayList<>();
+        for (Pack pack : packsOf(gitDir)) {
+            for (int i = 0; i < pack.count; i += 1) {
+                if (pack.type(i) == type) {
+                    ids.add(pack.id(i));
+                }
+            }
+        }
+        return ids;
+    }
+
+    //* the ids of the objects of that kind starting with the lowercase hex prefix, found
+    // by a binary search for the first id not below it/
+    public static List<String> withPrefix(File gitDir, String kind, String prefix) {
+        byte type = (byte) kind.charAt(0);
+        byte[] key = toBytes((prefix + "0000000000000000000000000000000000000000")
+                .substring(0, 40));
+        List<String> ids = new ArrayList<>();
+        if (key == null) {
+            return ids;
+        }
+        for (Pack pack : packsOf(gitDir)) {
+            int lo = 0;
+            int hi = pack.count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pack.compare(mid, key, (byte) 0) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < pack.count; i += 1) {
+                String id = pack.id(i);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                if (pack.type(i) == type) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    //* the repositories whose packs are loaded/
+    static synchronized Set<File> loaded() {
+        return new HashSet<>(LOADED.keySet());
+    }
+
+    //* forgets the packs of that repository, so they are listed again on the next lookup/
+    static synchronized void unload(File gitDir) {
+        LOADED.remove(gitDir);
+    }
+
+    private static synchronized List<Pack> packsOf(File gitDir) {
+        List<Pack> packs = LOADED.get(gitDir);
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File folder = join(gitDir, PACK_FOLDER);
+            List<String> files = plainFilenamesIn(folder);
+            if (files != null) {
+                for (String file : files) {
+                    if (file.endsWith(".idx")) {
+                        String name = file.substring(0, file.length() - 4);
+                        File dataFile = join(folder, name + ".pack");
+                        if (dataFile.exists()) {
+                            try {
+                                packs.add(new Pack(join(folder, file), dataFile));
+                            } catch (IOException io) {
+                                System.out.println("io error");
+                            }
+                        }
+                    }
+                }
+            }
+            LOADED.put(gitDir, packs);
+        }
+        return packs;
+    }
+
+    private int search(byte[] key, byte type) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key, type);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int i, byte[] key, byte type) {
+        int base = HEADER_SIZE + i * ENTRY_SIZE;
+        for (int j = 0; j < 20; j += 1) {
+            int cmp = Byte.toUnsignedInt(index.get(base + j)) - Byte.toUnsignedInt(key[j]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return index.get(base + 20) - type;
+    }
+
+    private String id(int i) {
+        byte[] id = new byte[20];
+        int base = HEADER_SIZE + i * ENTRY_SIZE;
+        for (int j = 0; j < 20; j += 1) {
+            id[j] = index.get(base + j);
+        }
+        return toHex(id);
+    }
+
+    private byte type(int i) {
+        return index.get(HEADER_SIZE + i * ENTRY_SIZE + 20);
+    }
+
+    private ByteBuffer slice(int i) {
+        int base = HEADER_SIZE + i * ENTRY_SIZE;
+        int offset = (int) index.getLong(base + 21);
+        int length = index.getInt(base + 29);
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    //* folds every loose object and every existing pack into new packs/
+    public static void gc() {
+        gc(new HashSet<>());
+    }
+
+    //* same as gc, but packed commits with one of the dropped ids are left out/
+    static void gc(Set<String> dropped) {
+        File gitDir = Repository.GITLET_DIR;
+        File folder = join(gitDir, PACK_FOLDER);
+        folder.mkdir();
+        List<Pack> oldPacks = packsOf(gitDir);
+        List<String[]> packedLoose = new ArrayList<>();
+        HashSet<String> kept = new HashSet<>();
+        HashSet<String> seen = new HashSet<>();
+        try {
+            Writer writer = new Writer(folder, kept);
+            for (String kind : new String[]{ObjectStore.COMMITS, ObjectStore.BLOBS,
+                ObjectStore.TREES, ObjectStore.DELTAS}) {
+                byte type = (byte) kind.charAt(0);
+                for (String id : ObjectStore.listLoose(gitDir, kind)) {
+                    File f = ObjectStore.looseFile(gitDir, kind, id);
+                    if (toBytes(id) != null && seen.add((char) type + id)) {
+                        writer.add(id, type, ObjectStore.mapFile(f));
+                        packedLoose.add(new String[]{kind, id});
+                    }
+                }
+            }
+            for (Pack pack : oldPacks) {
+                for (int i = 0; i < pack.count; i += 1) {
+                    boolean drop = pack.type(i) == (byte) ObjectStore.COMMITS.charAt(0)
+                            && dropped.contains(pack.id(i));
+                    if (!drop && seen.add((char) pack.type(i) + pack.id(i))) {
+                        writer.add(pack.id(i), pack.type(i), pack.slice(i));
+                    }
+                }
+            }
+            writer.finish();
+        } catch (IOException io) {
+            System.out.println("io error");
+            return;
+        }
+        unload(gitDir);
+        for (Pack pack : oldPacks) {
+            String name = pack.dataFile.getName();
+            if (!kept.contains(name.substring(0, name.length() - 5))) {
+                pack.indexFile.delete();
+                pack.dataFile.delete();
+            }
+        }
+        for (String[] loose : packedLoose) {
+            ObjectStore.deleteLoose(gitDir, loose[0], loose[1]);
+        }
+        CommitGraph.write(gitDir);
+        Bitmaps.write(gitDir);
+    }
+
+    //* writes the objects of repository from (each given as KIND/ID) into a new pack of
+    // gitDir, stored the way gitDir stores objects. Returns false if that failed/
+    static boolean write(File gitDir, File from, List<String> objects) {
+        File folder = join(gitDir, PACK_FOLDER);
+        folder.mkdir();
+        try {
+            Writer writer = new Writer(folder, new HashSet<>());
+            for (String object : objects) {
+                int slash = object.indexOf('/');
+                String kind = object.substring(0, slash);
+                String id = object.substring(slash + 1);
+                writer.add(id, (byte) kind.charAt(0), ObjectStore.stored(from, gitDir, kind, id));
+            }
+            writer.finish();
+        } catch (IOException io) {
+            System.out.println("io error");
+            return false;
+        }
+        unload(gitDir);
+        return true;
+    }
+
+    /**
+     * Appends objects to a temporary data file and writes the sorted index when
+     * a pack is full. Files only get their final name once they are synced to disk.
+     */
+    private static class Writer {
+        private final File folder;
+        private final HashSet<String> kept;
+        private final ArrayList<Entry> entries = new ArrayList<>();
+        private File tempData;
+        private FileChannel channel;
+        private long size;
+
+        Writer(File folder, HashSet<String> kept) {
+            this.folder = folder;
+            this.kept = kept;
+        }
+
+        void add(String id, byte type, ByteBuffer contents) throws IOException {
+            if (channel != null && size + contents.remaining() > MAX_PACK_SIZE) {
+                finish();
+            }
+            if (channel == null) {
+                tempData = join(folder, "tmp-" + System.nanoTime() + ".pack");
+                channel = new RandomAccessFile(tempData, "rw").getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(PACK_MAGIC).putInt(VERSION).putInt(0).flip();
+                writeFully(channel, header);
+                size = HEADER_SIZE;
+            }
+            entries.add(new Entry(toBytes(id), type, size, contents.remaining()));
+            size += contents.remaining();
+            writeFully(channel, contents);
+        }
+
+        void finish() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            entries.sort(Comparator.comparing((Entry e) -> e.id, Pack::compareIds)
+                    .thenComparing(e -> e.type));
+            ByteBuffer count = ByteBuffer.allocate(4);
+            count.putInt(entries.size()).flip();
+            channel.write(count, 8);
+            channel.force(true);
+            channel.close();
+
+            ByteBuffer idx = ByteBuffer.allocate(HEADER_SIZE + entries.size() * ENTRY_SIZE);
+            idx.putInt(INDEX_MAGIC).putInt(VERSION).putInt(entries.size());
+            byte[][] ids = new byte[entries.size()][];
+            for (int i = 0; i < entries.size(); i += 1) {
+                Entry e = entries.get(i);
+                idx.put(e.id).put(e.type).putLong(e.offset).putInt(e.length);
+                ids[i] = e.id;
+            }
+            idx.flip();
+            String name = "pack-" + sha1((Object[]) ids);
+            File tempIndex = join(folder, tempData.getName().replace(".pack", ".idx"));
+            try (FileChannel out = new RandomAccessFile(tempIndex, "rw").getChannel()) {
+                writeFully(out, idx);
+                out.force(true);
+            }
+            File dataFile = join(folder, name + ".pack");
+            File indexFile = join(folder, name + ".idx");
+            if (dataFile.exists() && indexFile.exists()) {
+                tempData.delete();
+                tempIndex.delete();
+            } else if (!tempData.renameTo(dataFile) || !tempIndex.renameTo(indexFile)) {
+                throw new IOException("could not name pack " + name);
+            }
+            kept.add(name);
+            entries.clear();
+            channel = null;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] id;
+        private final byte type;
+        private final long offset;
+        private final int length;
+
+        Entry(byte[] id, byte type, long offset, int length) {
+            this.id = id;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static int compareIds(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i += 1) {
+            int cmp = Byte.toUnsignedInt(a[i]) - Byte.toUnsignedInt(b[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    //* converts a 40 character hex id to its 20 bytes, or null if it is not a full id/
+    static byte[] toBytes(String id) {
+        if (id == null || id.length() != 40) {
+            return null;
+        }
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < 20; i += 1) {
+            int hi = Character.digit(id.charAt(2 * i), 16);
+            int lo = Character.digit(id.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
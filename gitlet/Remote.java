@@ -3,8 +3,16 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Stack;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
@@ -18,6 +26,15 @@ import static gitlet.Utils.*;
 
 public class Remote implements Serializable {
     static final File REMOTE_FOLDER = join(GITLET_DIR, "remotes");
+    /**
+     * Number of threads that copy objects between repositories
+     */
+    static final String PARALLELISM = "transfer.parallelism";
+    private static final int DEFAULT_PARALLELISM = 8;
+    /**
+     * Objects per fork-join task before it stops splitting
+     */
+    private static final int THRESHOLD = 16;
 
     public static void addRemote(String remoteName, String remote) {
         File newRemote = join(REMOTE_FOLDER, remoteName);
@@ -44,88 +61,287 @@ public class Remote implements Serializable {
             String dir = readObject(remote, String.class);
             if (!new File(dir + File.separator + ".gitlet").exists()) {
                 System.out.println("Remote directory not found.");
-                System.exit(0);
+                Main.exit();
                 return null;
             }
             return dir;
         } else {
             System.out.println("Remote directory not found.");
-            System.exit(0);
+            Main.exit();
             return null;
         }
     }
 
-    public static void push(String remoteName, String branchName) {
+    //* the .gitlet folder of the remote. Exits if the remote hashes files in another format
+    // than this repository, since the blob ids the two exchange would not match/
+    private static File remoteGitDir(String remoteName) {
         File gitDir = new File(getRemoteDir(remoteName) + File.separator + ".gitlet");
-        String branchHead = Core.getHeadRemote(branchName, join(gitDir, "branches"));
-        Commit c = Commit.getCommit(head);
-        Stack<String> commits = new Stack<>();
-        Boolean inHistory = false;
-        while (c.getParents(0) != null) {
-            commits.push(c.getId());
-            if (c.getParents(0).equals(branchHead)) {
-                inHistory = true;
-                break;
+        if (Config.getInt(gitDir, Config.HASH_FORMAT, Blobs.LEGACY_HASH)
+                != Config.getInt(Config.HASH_FORMAT, Blobs.LEGACY_HASH)) {
+            System.out.println("Remote uses a different hash format.");
+            Main.exit();
+        }
+        return gitDir;
+    }
+
+    //* sends the commits, trees and blobs the remote branch is missing as one pack and
+    // then moves the remote branch to the head, unless someone moved it in the meantime.
+    // The objects to send are the reachability bitmap of the head minus that of the
+    // remote branch/
+    public static void push(String remoteName, String branchName) {
+        File gitDir = remoteGitDir(remoteName);
+        File remoteBranches = join(gitDir, "branches");
+        String branchHead = Core.getHeadRemote(branchName, remoteBranches);
+        CommitGraph graph = CommitGraph.load(GITLET_DIR);
+        int remoteHead = graph.find(branchHead);
+        int localHead = graph.find(head);
+        if (remoteHead == CommitGraph.NONE || !graph.isAncestor(remoteHead, localHead)) {
+            System.out.println("Please pull down remote changes before pushing.");
+            return;
+        }
+        Bitmaps bitmaps = Bitmaps.load(GITLET_DIR);
+        BitSet missing = bitmaps.reachable(localHead);
+        missing.andNot(bitmaps.reachable(remoteHead));
+        List<String> objects = new ArrayList<>();
+        for (String object : bitmaps.objects(missing)) {
+            String id = object.substring(object.indexOf('/') + 1);
+            if (object.startsWith(ObjectStore.TREES)
+                    ? !ObjectStore.contains(gitDir, ObjectStore.TREES, id)
+                    : !Blobs.exists(gitDir, id)) {
+                objects.add(object);
             }
-            c = Commit.getCommit(c.getParents().get(0));
-        }
-        if (inHistory) {
-            for (String file : commits) {
-                File fromFile = join(Commit.COMMIT_FOLDER, file);
-                File toFile = join(join(gitDir, "commits"), file);
-                if (!toFile.exists()) {
-                    Commit contents = readObject(fromFile, Commit.class);
-                    writeObject(toFile, contents);
-                }
+        }
+        BitSet toPush = graph.ancestors(localHead);
+        toPush.andNot(graph.ancestors(remoteHead));
+        List<Commit> commits = new ArrayList<>();
+        for (int i = toPush.nextSetBit(0); i >= 0; i = toPush.nextSetBit(i + 1)) {
+            String id = graph.id(i);
+            if (!ObjectStore.contains(gitDir, ObjectStore.COMMITS, id)) {
+                objects.add(ObjectStore.COMMITS + "/" + id);
+                commits.add(Commit.read(GITLET_DIR, id));
             }
-            File branchFile = join(join(gitDir, "branches"), branchName);
-            writeObject(branchFile, head);
-        } else {
-            System.out.println("Please pull down remote changes before pushing.");
+        }
+        if (!objects.isEmpty() && !Pack.write(gitDir, GITLET_DIR, objects)) {
+            return;
+        }
+        for (Commit c : commits) {
+            CommitIndex.append(gitDir, c);
+            CommitGraph.append(gitDir, c);
+        }
+        switch (Core.updateRef(remoteBranches, branchName, branchHead, head)) {
+            case STALE:
+                System.out.println("Please pull down remote changes before pushing.");
+                break;
+            case LOCKED:
+                System.out.println("Remote branch is locked by another push. If none is "
+                        + "running, delete " + Core.refLock(remoteBranches, branchName) + ".");
+                break;
+            default:
+                break;
         }
     }
 
+    //* copies the remote branch with every commit, tree and blob of its history that
+    // the local repository does not have yet, and points REMOTE/BRANCH at it/
     public static String fetch(String remoteName, String branchName) {
-        File gitDir = new File(getRemoteDir(remoteName) + File.separator + ".gitlet");
+        File gitDir = remoteGitDir(remoteName);
         String branchHead = Core.getHeadRemote(branchName, join(gitDir, "branches"));
-        Commit remoteHead = getRemoteCommit(branchHead, gitDir);
+        getRemoteCommit(branchHead, gitDir);
+        List<Commit> commits = missingCommits(branchHead, gitDir);
+        LinkedHashSet<String> objects = new LinkedHashSet<>();
+        for (Commit c : commits) {
+            addObjects(c, gitDir, GITLET_DIR, objects);
+        }
+        List<String> commitIds = new ArrayList<>();
+        for (Commit c : commits) {
+            commitIds.add(ObjectStore.COMMITS + "/" + c.getId());
+        }
+        copy(gitDir, GITLET_DIR, new ArrayList<>(objects), commitIds);
+        for (Commit c : commits) {
+            CommitIndex.append(GITLET_DIR, c);
+            CommitGraph.append(GITLET_DIR, c);
+        }
         String newName = remoteName + "%" + branchName;
         File branchFile = join(BRANCHES_FOLDER, newName);
         writeObject(branchFile, branchHead);
-        while (remoteHead.getParents(0) != null) {
-            File fromFile = join(join(gitDir, "commits"), remoteHead.getId());
-            File toFile = join(Commit.COMMIT_FOLDER, remoteHead.getId());
-            if (!toFile.exists()) {
-                Commit contents = readObject(fromFile, Commit.class);
-                writeObject(toFile, contents);
-                addBlobs(remoteHead, gitDir);
-            }
-            remoteHead = getRemoteCommit(remoteHead.getParents(0), gitDir);
-        }
         return newName;
     }
 
     public static Commit getRemoteCommit(String commmitName, File gitDir) {
-        File commit = join(join(gitDir, "commits"), commmitName);
-        if (commit.exists()) {
-            Commit c = readObject(commit, Commit.class);
+        Commit c = Commit.read(gitDir, commmitName);
+        if (c != null) {
             return c;
         } else {
             System.out.print("No commit with that id exists.");
-            System.exit(0);
+            Main.exit();
         }
         return null;
     }
 
-    public static void addBlobs(Commit commit, File gitDir) {
-        HashMap<String, String> commitBlobs = commit.getBlobs();
-        for (HashMap.Entry<String, String> pair : commitBlobs.entrySet()) {
-            String hash = pair.getValue();
-            File fromFile = join(join(gitDir, "blobs"), hash);
-            File toFile = join(Blobs.BLOBS_FOLDER, hash);
-            if (!toFile.exists()) {
-                byte[] contents = readContents(fromFile);
-                writeObject(toFile, contents);
+    //* the remote commits the local repository is missing, found by walking back over
+    // both parents from the wanted commit and stopping at every commit the local commit
+    // graph already has (with its whole history). Parents come before their children/
+    private static List<Commit> missingCommits(String want, File gitDir) {
+        CommitGraph graph = CommitGraph.load(GITLET_DIR);
+        List<Commit> missing = new ArrayList<>();
+        HashSet<String> done = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(want);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (done.contains(id) || graph.find(id) != CommitGraph.NONE) {
+                done.add(id);
+                stack.pop();
+                continue;
+            }
+            Commit c = getRemoteCommit(id, gitDir);
+            boolean ready = true;
+            for (String p : c.getParents()) {
+                if (p != null && !done.contains(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                done.add(id);
+                missing.add(c);
+            }
+        }
+        return missing;
+    }
+
+    //* adds the trees and blobs of the commit that repository to does not have to the
+    // objects to copy from repository from (as KIND/ID)/
+    static void addObjects(Commit c, File from, File to, LinkedHashSet<String> objects) {
+        if (c.getTree() != null) {
+            addTree(c.getTree(), from, to, objects);
+        } else {
+            for (String hash : c.getBlobs().values()) {
+                addBlob(hash, from, to, objects);
+            }
+        }
+    }
+
+    //* adds a tree and everything below it that repository to does not have to the
+    // objects to copy, children before their parents. A tree to already has is skipped
+    // with all of its subtrees, since a tree is only stored after everything below it/
+    private static void addTree(String treeId, File from, File to,
+                                LinkedHashSet<String> objects) {
+        String key = ObjectStore.TREES + "/" + treeId;
+        if (objects.contains(key) || ObjectStore.contains(to, ObjectStore.TREES, treeId)) {
+            return;
+        }
+        Tree tree = Tree.read(from, treeId);
+        for (String hash : tree.getBlobs().values()) {
+            addBlob(hash, from, to, objects);
+        }
+        for (String child : tree.getTrees().values()) {
+            addTree(child, from, to, objects);
+        }
+        objects.add(key);
+    }
+
+    //* adds a blob to the objects to copy; a delta is copied as it is, together with
+    // its base/
+    private static void addBlob(String hash, File from, File to,
+                                LinkedHashSet<String> objects) {
+        if (objects.contains(ObjectStore.BLOBS + "/" + hash)
+                || objects.contains(ObjectStore.DELTAS + "/" + hash)
+                || Blobs.exists(to, hash)) {
+            return;
+        }
+        ByteBuffer delta = ObjectStore.map(from, ObjectStore.DELTAS, hash);
+        if (delta != null) {
+            byte[] base = new byte[20];
+            delta.get(base);
+            addBlob(Pack.toHex(base), from, to, objects);
+            objects.add(ObjectStore.DELTAS + "/" + hash);
+        } else if (ObjectStore.contains(from, ObjectStore.BLOBS, hash)) {
+            objects.add(ObjectStore.BLOBS + "/" + hash);
+        }
+    }
+
+    public static int parallelism() {
+        return Math.max(1, Config.getInt(PARALLELISM, DEFAULT_PARALLELISM));
+    }
+
+    //* copies the objects and then the commits (each given as KIND/ID) between the
+    // repositories with a pool of threads, and syncs them all to disk at the end, once/
+    private static void copy(File from, File to, List<String> objects, List<String> commits) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism());
+        List<File> written = new ArrayList<>();
+        try {
+            for (List<String> batch : List.of(objects, commits)) {
+                File[] files = new File[batch.size()];
+                pool.invoke(new CopyTask(from, to, batch, files, 0, files.length));
+                written.addAll(Arrays.asList(files));
+            }
+            LinkedHashSet<File> folders = new LinkedHashSet<>();
+            for (File f : written) {
+                folders.add(f.getParentFile());
+            }
+            written.addAll(folders);
+            pool.invoke(new SyncTask(written.toArray(new File[0]), 0, written.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class CopyTask extends RecursiveAction {
+        private final File from;
+        private final File to;
+        private final List<String> objects;
+        private final File[] written;
+        private final int lo;
+        private final int hi;
+
+        CopyTask(File from, File to, List<String> objects, File[] written, int lo, int hi) {
+            this.from = from;
+            this.to = to;
+            this.objects = objects;
+            this.written = written;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                for (int i = lo; i < hi; i += 1) {
+                    String object = objects.get(i);
+                    int slash = object.indexOf('/');
+                    written[i] = ObjectStore.copy(from, to, object.substring(0, slash),
+                            object.substring(slash + 1));
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new CopyTask(from, to, objects, written, lo, mid),
+                        new CopyTask(from, to, objects, written, mid, hi));
+            }
+        }
+    }
+
+    private static class SyncTask extends RecursiveAction {
+        private final File[] files;
+        private final int lo;
+        private final int hi;
+
+        SyncTask(File[] files, int lo, int hi) {
+            this.files = files;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                for (int i = lo; i < hi; i += 1) {
+                    ObjectStore.force(files[i]);
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new SyncTask(files, lo, mid), new SyncTask(files, mid, hi));
             }
         }
     }
@@ -1,12 +1,25 @@
 package gitlet;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static gitlet.Core.*;
 import static gitlet.Utils.*;
@@ -36,14 +49,6 @@ public class Repository {
      * The .gitlet directory.
      */
     static final File GITLET_DIR = join(CWD, ".gitlet");
-    /**
-     * The staging area
-     */
-    static final File STAGING_FOLDER = join(GITLET_DIR, "staging");
-    /**
-     * The staging area for removals
-     */
-    static final File REMOVAL_FOLDER = join(GITLET_DIR, "remove");
     /**
      * Folder where head pointer of each branch is stored
      */
@@ -61,14 +66,18 @@ public class Repository {
     public static void initialize() {
         if (!GITLET_DIR.exists()) {
             GITLET_DIR.mkdir();
-            STAGING_FOLDER.mkdir();
-            REMOVAL_FOLDER.mkdir();
             BRANCHES_FOLDER.mkdir();
             Blobs.BLOBS_FOLDER.mkdir();
             Remote.REMOTE_FOLDER.mkdir();
-            initialCommit = new Commit("initial commit", null, new HashMap<>());
+            Config.set(Config.HASH_FORMAT, Integer.toString(Blobs.STREAM_HASH));
+            Config.set(Config.OBJECT_FORMAT, Integer.toString(ObjectStore.CODEC_OBJECTS));
+            Config.set(Config.OBJECT_CODEC, Codec.DEFLATE.getName());
+            Tree.TREES_FOLDER.mkdir();
+            initialCommit = new Commit("initial commit", null, new Tree().save());
             Commit.COMMIT_FOLDER.mkdir();
             initialCommit.saveCommit();
+            CommitIndex.ensure(GITLET_DIR);
+            CommitGraph.append(GITLET_DIR, initialCommit);
             head = initialCommit.getId();
             createBranch("master");
             saveHead();
@@ -82,64 +91,159 @@ public class Repository {
         createBranch(s);
     }
 
-    public static void add(String s) {
-        File fileFinder = join(CWD, s);
-        if (fileFinder.exists()) {
-            File stagingFile = join(STAGING_FOLDER, s);
-            Commit c = Commit.getCommit(head);
-            String hashblob = Blobs.hashBlob(fileFinder);
-            if (!c.getBlobs().containsValue(hashblob)) {
-                try {
-                    Files.copy(fileFinder.toPath(), stagingFile.toPath(),
-                            StandardCopyOption.REPLACE_EXISTING);
-                } catch (IOException io) {
-                    System.out.println("io error");
-                }
-            } else {
-                if (stagingFile.exists()) {
-                    stagingFile.delete();
+    //* stores every file the pathspecs name as a blob and stages it, or unstages it if
+    // it matches the head. The files are hashed, and the new blobs stored, on a pool of
+    // threads; the head commit is read and the stage written once for all of them/
+    public static void add(String... pathspecs) {
+        String[] paths = expandPathspecs(pathspecs).toArray(new String[0]);
+        Stage stage = Stage.read(GITLET_DIR);
+        Commit headCommit = Commit.getCommit(head);
+        Map<String, String> committed = headCommit.getBlobs();
+        HashSet<String> committedBlobs = new HashSet<>(committed.values());
+        File[] files = new File[paths.length];
+        for (int i = 0; i < paths.length; i += 1) {
+            files[i] = join(CWD, paths[i]);
+        }
+        String[] hashes = new String[paths.length];
+        ForkJoinPool pool = new ForkJoinPool(Status.parallelism());
+        try {
+            pool.invoke(new AddTask(files, hashes, null, 0, files.length));
+            String[] bases = new String[paths.length];
+            HashSet<String> storing = new HashSet<>();
+            for (int i = 0; i < paths.length; i += 1) {
+                String hash = hashes[i];
+                if (!committedBlobs.contains(hash) && !hash.equals(stage.blob(paths[i]))
+                        && storing.add(hash)) {
+                    bases[i] = committed.getOrDefault(paths[i], "");
                 }
             }
-            File removalFile = join(REMOVAL_FOLDER, s);
-            if (removalFile.exists()) {
-                removalFile.delete();
+            pool.invoke(new AddTask(files, hashes, bases, 0, files.length));
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < paths.length; i += 1) {
+            int mode = Stage.modeOf(files[i]);
+            if (hashes[i].equals(committed.get(paths[i])) && mode == headCommit.modeOf(paths[i])) {
+                stage.unstage(paths[i]);
+            } else {
+                stage.add(paths[i], mode, hashes[i]);
             }
-        } else {
-            System.out.println("File does not exist.");
-            System.exit(0);
         }
+        stage.write();
+        StatCache.save();
     }
 
-    public static void makeCommit(String s, int parents, String branchId) {
-        Commit c = Commit.getCommit(head);
-        HashMap<String, String> stagedBlobs = new HashMap<>();
-        List<String> blobs = plainFilenamesIn(STAGING_FOLDER);
-        List<String> exclude = plainFilenamesIn(REMOVAL_FOLDER);
-        if (blobs.size() > 0 || exclude.size() > 0) {
-            for (String blob : blobs) {
-                File stagedFile = join(STAGING_FOLDER, blob);
-                String savedBlob = Blobs.saveBlob(stagedFile);
-                stagedBlobs.put(blob, savedBlob);
-                stagedFile.delete();
+    /**
+     * Hashes files (when bases is null) or stores those with a base (an empty base
+     * meaning the file is stored whole)
+     */
+    private static class AddTask extends RecursiveAction {
+        private static final int THRESHOLD = 16;
+        private final File[] files;
+        private final String[] hashes;
+        private final String[] bases;
+        private final int lo;
+        private final int hi;
+
+        AddTask(File[] files, String[] hashes, String[] bases, int lo, int hi) {
+            this.files = files;
+            this.hashes = hashes;
+            this.bases = bases;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                for (int i = lo; i < hi; i += 1) {
+                    if (bases == null) {
+                        hashes[i] = StatCache.hash(files[i]);
+                    } else if (bases[i] != null) {
+                        Blobs.saveBlob(files[i], hashes[i], bases[i].isEmpty() ? null : bases[i]);
+                    }
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new AddTask(files, hashes, bases, lo, mid),
+                        new AddTask(files, hashes, bases, mid, hi));
             }
+        }
+    }
 
-            for (HashMap.Entry<String, String> pair : c.getBlobs().entrySet()) {
-                String k = pair.getKey();
-                String v = pair.getValue();
-                if (!stagedBlobs.containsKey(k) && !exclude.contains(k)) {
-                    stagedBlobs.put(k, v);
-                } else if (exclude.contains(k)) {
-                    File removalFile = join(REMOVAL_FOLDER, k);
-                    removalFile.delete();
+    //* the working files the pathspecs name, sorted: a file, every file below a folder,
+    // or the files whose path matches a glob pattern. Exits if one of them names none,
+    // or names a path outside the working directory or inside .gitlet/
+    static List<String> expandPathspecs(String... pathspecs) {
+        TreeSet<String> paths = new TreeSet<>();
+        List<String> working = null;
+        for (String spec : pathspecs) {
+            File f = join(CWD, spec).toPath().normalize().toFile();
+            String path = workingPath(f);
+            if (path == null) {
+                System.out.println(spec + " is outside the working directory.");
+                Main.exit();
+            }
+            boolean matched = false;
+            if (f.isFile()) {
+                paths.add(path);
+                matched = true;
+            } else if (f.isDirectory()) {
+                String prefix = path.isEmpty() ? "" : path + "/";
+                for (String file : filesIn(f)) {
+                    paths.add(prefix + file);
+                    matched = true;
+                }
+            } else if (spec.matches(".*[*?\\[{].*")) {
+                if (working == null) {
+                    working = filesIn(CWD);
+                }
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                for (String file : working) {
+                    if (matcher.matches(Paths.get(file))) {
+                        paths.add(file);
+                        matched = true;
+                    }
                 }
             }
+            if (!matched) {
+                System.out.println("File does not exist.");
+                Main.exit();
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    //* the path of the normalized file relative to the working directory, with / between
+    // names ("" for the working directory itself), or null if it is outside the working
+    // directory or inside .gitlet/
+    private static String workingPath(File f) {
+        String path = CWD.toPath().relativize(f.toPath()).toString()
+                .replace(File.separatorChar, '/');
+        String gitlet = GITLET_DIR.getName();
+        if (path.equals("..") || path.startsWith("../")
+                || path.equals(gitlet) || path.startsWith(gitlet + "/")) {
+            return null;
+        }
+        return path;
+    }
+
+    public static void makeCommit(String s, int parents, String branchId) {
+        Commit c = Commit.getCommit(head);
+        Stage stage = Stage.read(GITLET_DIR);
+        if (!stage.isEmpty()) {
+            String tree = Tree.update(Tree.of(c), stage.changes(), stage.modes());
             Commit newCommit = null;
             if (parents == 1) {
-                newCommit = new Commit(s, head, stagedBlobs);
+                newCommit = new Commit(s, head, tree);
             } else {
-                newCommit = new Commit(s, head, branchId, stagedBlobs);
+                newCommit = new Commit(s, head, branchId, tree);
             }
             newCommit.saveCommit();
+            stage.clear();
+            stage.write();
+            CommitIndex.append(GITLET_DIR, newCommit);
+            CommitGraph.append(GITLET_DIR, newCommit);
             head = newCommit.getId();
             saveHead();
         } else {
@@ -149,44 +253,87 @@ public class Repository {
 
     public static void getLog(String s) {
         if (s.equals("global-log")) {
-            List<String> commits = plainFilenamesIn(Commit.COMMIT_FOLDER);
-            for (String commitHash : commits) {
-                Commit commit = Commit.getCommit(commitHash);
-                System.out.println(commit.getLog());
+            CommitIndex.globalLog();
+        }
+    }
+
+    //* prints the first parent history of head one commit at a time through a buffered
+    // writer, skipping the first skip commits, stopping after limit commits (if limit >= 0)
+    // and at the first commit made before since (seconds since the epoch)/
+    public static void log(int limit, int skip, long since) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+        int printed = 0;
+        for (Commit commit : new History(head)) {
+            if (printed == limit || commit.getTimestamp() < since) {
+                break;
+            }
+            if (skip > 0) {
+                skip -= 1;
+                continue;
+            }
+            if (printed > 0) {
+                out.print("\n");
             }
-        } else if (s.equals("log")) {
-            Commit commitHead = Commit.getCommit(head);
-            commitHead.logs();
+            out.print(commit.getLog());
+            printed += 1;
         }
+        out.flush();
     }
 
     public static void doCheckout(String commitId, String fileName) {
-        Commit c = null;
-        if (commitId.length() == 40) {
-            c = Commit.getCommit(commitId);
-        } else {
-            c = shortcommit(commitId);
-        }
-        if (c != null && c.getBlobs().containsKey(fileName)) {
-            String fileHash = c.getBlobs().get(fileName);
-            byte[] fileFinder = Blobs.readBlob(fileHash);
-            File replaceFile = join(CWD, fileName);
-            writeContents(replaceFile, fileFinder);
+        Commit c = Commit.getCommit(expandId(commitId));
+        if (c.getBlobs().containsKey(fileName)) {
+            checkoutFile(fileName, c.getBlobs().get(fileName), c.modeOf(fileName));
         } else {
             System.out.println("File does not exist in that commit.");
         }
     }
 
-    private static Commit shortcommit(String commitId) {
-        List<String> files = plainFilenamesIn(Commit.COMMIT_FOLDER);
-        int i = 0;
-        String commit = null;
-        for (String file : files) {
-            if (file.contains(commitId)) {
-                return Commit.getCommit(file);
-            }
+    private static void checkoutFile(String fileName, String fileHash, int mode) {
+        File replaceFile = join(CWD, fileName);
+        replaceFile.getParentFile().mkdirs();
+        Blobs.checkoutBlob(fileHash, replaceFile);
+        Checkout.setMode(replaceFile, mode);
+    }
+
+    //* expands an abbreviated commit id to the full id of the only commit it starts,
+    // returning it unchanged if there is no such commit. Exits if it is ambiguous/
+    static String expandId(String commitId) {
+        if (commitId.length() == 40) {
+            return commitId;
+        }
+        List<String> ids = ObjectStore.withPrefix(GITLET_DIR, ObjectStore.COMMITS, commitId);
+        if (ids.size() > 1) {
+            System.out.println("Ambiguous commit id.");
+            Main.exit();
+        }
+        return ids.isEmpty() ? commitId : ids.get(0);
+    }
+
+    //* resolves a branch name or a full or abbreviated commit id to a commit id, or null/
+    static String resolveCommit(String name) {
+        File branch = join(BRANCHES_FOLDER, name.replace("/", "%"));
+        if (branch.isFile()) {
+            return readObject(branch, String.class);
+        }
+        String id = expandId(name);
+        return ObjectStore.contains(GITLET_DIR, ObjectStore.COMMITS, id) ? id : null;
+    }
+
+    public static void mergeBase(String first, String second, boolean all) {
+        String firstId = resolveCommit(first);
+        String secondId = resolveCommit(second);
+        if (firstId == null || secondId == null) {
+            System.out.println("No commit with that id exists.");
+            Main.exit();
+        }
+        CommitGraph graph = CommitGraph.load(GITLET_DIR);
+        List<Integer> bases = new MergeBase(graph).bases(graph.find(firstId),
+                graph.find(secondId));
+        for (int i = 0; i < bases.size() && (all || i == 0); i += 1) {
+            System.out.println(graph.id(bases.get(i)));
         }
-        return null;
     }
 
     public static void doBranchCheckout(String branchName) {
@@ -202,73 +349,99 @@ public class Repository {
         }
     }
 
+    //* makes the working directory match the head after moving it from previousHead. Only
+    // the paths whose blob differs between the two commits are written or deleted; any
+    // other file is rewritten only if it no longer matches its blob, which the stat cache
+    // answers without reading the file. The files are written by a pool of threads/
     private static void changeCWD(String previousHead) {
-        HashMap<String, String> previousHeadBlobs = Commit.getCommit(previousHead).getBlobs();
-        HashMap<String, String> currentHeadBlobs = Commit.getCommit(head).getBlobs();
-        List<String> currentFiles = plainFilenamesIn(CWD);
-        for (String file : currentFiles) {
-            if (!previousHeadBlobs.containsKey(file) && currentHeadBlobs.containsKey(file)) {
+        Commit previousCommit = Commit.getCommit(previousHead);
+        Commit currentCommit = Commit.getCommit(head);
+        TreeMap<String, String[]> changes = Tree.diff(previousCommit, currentCommit);
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[0] == null && join(CWD, change.getKey()).exists()) {
                 System.out.println("There is an untracked file "
                         + "in the way; delete it, or add and commit it first");
                 return;
             }
         }
-        for (HashMap.Entry<String, String> pair : currentHeadBlobs.entrySet()) {
-            String k = pair.getKey();
-            doCheckout(head, k);
+        TreeMap<String, String> toWrite = new TreeMap<>();
+        for (HashMap.Entry<String, String> pair : currentCommit.getBlobs().entrySet()) {
+            File f = join(CWD, pair.getKey());
+            if (changes.containsKey(pair.getKey()) || !f.isFile()
+                    || !StatCache.hash(f).equals(pair.getValue())) {
+                toWrite.put(pair.getKey(), pair.getValue());
+            }
+        }
+        String[] paths = toWrite.keySet().toArray(new String[0]);
+        int[] modes = new int[paths.length];
+        for (int i = 0; i < paths.length; i += 1) {
+            modes[i] = currentCommit.modeOf(paths[i]);
         }
-        for (HashMap.Entry<String, String> pair : previousHeadBlobs.entrySet()) {
-            String k = pair.getKey();
-            if (!currentHeadBlobs.containsKey(k)) {
-                File deleteFile = join(CWD, k);
-                deleteFile.delete();
+        Checkout.write(GITLET_DIR, CWD, paths, toWrite.values().toArray(new String[0]), modes,
+                Checkout.parallelism());
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                deleteFile(CWD, join(CWD, change.getKey()));
             }
         }
-        clearStaging();
-        System.exit(0);
+        StatCache.save();
+        Stage stage = Stage.read(GITLET_DIR);
+        stage.clear();
+        stage.write();
+        Main.exit();
     }
 
-    private static void clearStaging() {
-        for (File file : STAGING_FOLDER.listFiles()) {
-            file.delete();
+    //* lists every file below the folder (except .gitlet) as a sorted relative path/
+    static List<String> filesIn(File folder) {
+        List<String> files = new ArrayList<>();
+        filesIn(folder, "", files);
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void filesIn(File folder, String prefix, List<String> files) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
         }
-        for (File file : REMOVAL_FOLDER.listFiles()) {
-            file.delete();
+        for (File child : children) {
+            if (child.isFile()) {
+                files.add(prefix + child.getName());
+            } else if (child.isDirectory() && !child.equals(GITLET_DIR)) {
+                filesIn(child, prefix + child.getName() + "/", files);
+            }
         }
+    }
 
+    //* deletes the file and then every folder it leaves empty, up to the root folder/
+    static void deleteFile(File root, File file) {
+        file.delete();
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(root) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
     }
 
     public static void remove(String fileName) {
-        File stageFile = join(STAGING_FOLDER, fileName);
+        Stage stage = Stage.read(GITLET_DIR);
         Commit c = Commit.getCommit(head);
-        if (stageFile.exists() || c.getBlobs().containsKey(fileName)) {
-            stageFile.delete();
-            removeFromHead(c, fileName);
+        boolean wasStaged = stage.unstage(fileName);
+        if (wasStaged || c.getBlobs().containsKey(fileName)) {
+            removeFromHead(stage, c, fileName);
+            stage.write();
         } else {
             System.out.print("No reason to remove the file.");
         }
     }
 
-    //* stages a deleted file for removal and removes
+    //* stages a tracked file for removal and removes
     // it from working directory if it hasn't been deleted/
-    private static void removeFromHead(Commit c, String fileName) {
+    private static void removeFromHead(Stage stage, Commit c, String fileName) {
         File file = join(CWD, fileName);
         if (c.getBlobs().containsKey(fileName)) {
-            File removalFile = join(REMOVAL_FOLDER, fileName);
+            stage.remove(fileName);
             if (file.exists()) {
-                try {
-                    Files.copy(file.toPath(), removalFile.toPath(),
-                            StandardCopyOption.REPLACE_EXISTING);
-                } catch (IOException io) {
-                    System.out.println("io error");
-                }
-                file.delete();
-            } else {
-                try {
-                    removalFile.createNewFile();
-                } catch (IOException io) {
-                    System.out.println("io error");
-                }
+                deleteFile(CWD, file);
             }
         }
     }
@@ -289,21 +462,81 @@ public class Repository {
     }
 
     public static void find(String message) {
-        List<String> commits = plainFilenamesIn(Commit.COMMIT_FOLDER);
-        int i = 0;
-        for (String commitHash : commits) {
-            Commit commit = Commit.getCommit(commitHash);
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commit.getId());
-                i += 1;
+        CommitIndex.find(message);
+    }
+
+    //* moves loose objects written flat into the fan-out folders, and rewrites the
+    // commits written with Java serialization by older versions in the binary encoding,
+    // together with every commit that descends from them (their ids change), and points
+    // the branches at the new ids. Commits with a flat blob map get a tree on the way.
+    // The commit index and graph are rebuilt afterwards/
+    public static void migrate() {
+        ObjectStore.fanOut(GITLET_DIR);
+        HashMap<String, String> renamed = new HashMap<>();
+        HashMap<String, Commit> read = new HashMap<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        HashSet<String> dropped = new HashSet<>();
+        for (String id : ObjectStore.list(GITLET_DIR, ObjectStore.COMMITS)) {
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                if (renamed.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit c = read.get(top);
+                if (c == null) {
+                    c = Commit.read(GITLET_DIR, top);
+                    read.put(top, c);
+                }
+                boolean ready = true;
+                for (String p : c.getParents()) {
+                    if (p != null && !renamed.containsKey(p)) {
+                        stack.push(p);
+                        ready = false;
+                    }
+                }
+                if (!ready) {
+                    continue;
+                }
+                stack.pop();
+                String parent1 = c.getParents().get(0);
+                String parent2 = c.getParents().size() > 1 ? c.getParents().get(1) : null;
+                Commit rewritten = c.migrate(parent1 == null ? null : renamed.get(parent1),
+                        parent2 == null ? null : renamed.get(parent2));
+                renamed.put(top, rewritten.getId());
+                read.remove(top);
+                if (!rewritten.getId().equals(top)) {
+                    rewritten.saveCommit();
+                    if (!ObjectStore.deleteLoose(GITLET_DIR, ObjectStore.COMMITS, top)) {
+                        dropped.add(top);
+                    }
+                }
             }
         }
-        if (i == 0) {
-            System.out.println("Found no commit with that message.");
+        List<String> branches = plainFilenamesIn(BRANCHES_FOLDER);
+        for (String branch : branches) {
+            File branchFile = join(BRANCHES_FOLDER, branch);
+            String id = readObject(branchFile, String.class);
+            if (renamed.containsKey(id)) {
+                writeObject(branchFile, renamed.get(id));
+            }
         }
+        Commit.clearCache();
+        boolean hadGraph = join(GITLET_DIR, CommitGraph.GRAPH_FILE).delete();
+        join(GITLET_DIR, CommitGraph.TAIL_FILE).delete();
+        if (!dropped.isEmpty()) {
+            Pack.gc(dropped);
+        } else if (hadGraph) {
+            CommitGraph.write(GITLET_DIR);
+        }
+        join(GITLET_DIR, CommitIndex.INDEX_FILE).delete();
+        join(GITLET_DIR, CommitIndex.TEXT_FILE).delete();
+        CommitIndex.ensure(GITLET_DIR);
     }
 
     public static void reset(String commitID) {
+        commitID = expandId(commitID);
         Commit.getCommit(commitID);
         String previousHead = head;
         head = commitID;
@@ -314,46 +547,10 @@ public class Repository {
     }
 
     public static void status() {
-        branchStatus();
-        System.out.println("");
-        stagedStatus();
-        System.out.println("");
-        removedStatus();
-        System.out.println("");
-        modifiedStatus();
-        System.out.println("");
-        untrackedStatus();
-    }
-
-    private static void branchStatus() {
-        System.out.println("=== Branches ===");
-        List<String> files = plainFilenamesIn(BRANCHES_FOLDER);
-        for (String file : files) {
-            if (getActiveBranch().equals(file)) {
-                System.out.println("*" + file.replace("%", "/"));
-            } else {
-                System.out.println(file.replace("%", "/"));
-            }
-        }
+        new Status().print(Status.parallelism());
+        StatCache.save();
     }
 
-    private static void stagedStatus() {
-        System.out.println("=== Staged Files ===");
-        List<String> files = plainFilenamesIn(STAGING_FOLDER);
-        for (String file : files) {
-            System.out.println(file);
-        }
-    }
-
-    private static void removedStatus() {
-        System.out.println("=== Removed Files ===");
-        List<String> files = plainFilenamesIn(REMOVAL_FOLDER);
-        for (String file : files) {
-            System.out.println(file);
-        }
-    }
-
-
     private static boolean mergeCheck(Commit current, String branchName) {
         File branch = join(BRANCHES_FOLDER, branchName);
         if (!branch.exists()) {
@@ -361,15 +558,14 @@ public class Repository {
             return false;
         }
         Commit other = Commit.getCommit(Core.getHead(branchName));
-        if (plainFilenamesIn(STAGING_FOLDER).size() > 0
-                || plainFilenamesIn(REMOVAL_FOLDER).size() > 0) {
+        if (!Stage.read(GITLET_DIR).isEmpty()) {
             System.out.println("You have uncommitted changes.");
             return false;
         } else if (current.equals(other)) {
             System.out.println("Cannot merge a branch with itself.");
             return false;
         }
-        List<String> currentFiles = plainFilenamesIn(CWD);
+        List<String> currentFiles = filesIn(CWD);
         for (String file : currentFiles) {
             if (!current.getBlobs().containsKey(file)) {
                 System.out.println("There is an untracked file "
@@ -380,70 +576,31 @@ public class Repository {
         return true;
     }
 
-    private static void modifiedStatus() {
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        HashMap<String, String> commitFiles = Commit.getCommit(head).getBlobs();
-        for (HashMap.Entry<String, String> pair : commitFiles.entrySet()) {
-            String file = pair.getKey();
-            String hash = pair.getValue();
-            if (join(CWD, file).exists()) {
-                String fileHash = Blobs.hashBlob(join(CWD, file));
-                if (!hash.equals(fileHash)) {
-                    System.out.println(file + " (modified)");
-                }
-            } else {
-                if (!plainFilenamesIn(REMOVAL_FOLDER).contains(file)) {
-                    System.out.println(file + " (deleted)");
-                }
-            }
-        }
-        List<String> stageFiles = plainFilenamesIn(STAGING_FOLDER);
-        for (String file : stageFiles) {
-            if (join(CWD, file).exists()) {
-                String fileHash = Blobs.hashBlob(join(CWD, file));
-                String stageHash = Blobs.hashBlob(join(STAGING_FOLDER, file));
-                if (!stageHash.equals(fileHash)) {
-                    System.out.println(file + " (modified)");
-                }
-            } else {
-                System.out.println(file + " (deleted)");
-            }
-        }
-    }
-
-    private static void untrackedStatus() {
-        System.out.println("=== Untracked Files ===");
-        HashMap<String, String> commitFiles = Commit.getCommit(head).getBlobs();
-        List<String> files = plainFilenamesIn(CWD);
-        for (String file : files) {
-            if (!commitFiles.containsKey(file) && !join(STAGING_FOLDER, file).exists()) {
-                System.out.println(file);
-            }
-        }
-    }
-
     public static void doMerge(String branchName) {
         Commit current = Commit.getCommit(head);
         if (!mergeCheck(current, branchName)) {
-            System.exit(0);
+            Main.exit();
         }
         Commit other = Commit.getCommit(Core.getHead(branchName));
-        Commit lca = Merge.findLCA(current, other);
+        CommitGraph graph = CommitGraph.load(GITLET_DIR);
+        int currentPosition = graph.find(current.getId());
+        int otherPosition = graph.find(other.getId());
         boolean hadConflict = false;
-        if (other.equals(lca)) {
+        if (graph.isAncestor(otherPosition, currentPosition)) {
             System.out.println("Given branch is an ancestor of the current branch.");
-        } else if (current.equals(lca)) {
+        } else if (graph.isAncestor(currentPosition, otherPosition)) {
             System.out.println("Current branch fast-forwarded.");
             doBranchCheckout(branchName);
         } else {
-            HashMap<String, String> lcaBlobs = lca.getBlobs();
-            HashMap<String, String> currentBlobs = current.getBlobs();
-            HashMap<String, String> otherBlobs = other.getBlobs();
+            Commit lca = Merge.findLCA(current, other);
+            Map<String, String> lcaBlobs = lca == null ? new HashMap<>() : lca.getBlobs();
+            Map<String, String> currentBlobs = current.getBlobs();
+            Map<String, String> otherBlobs = other.getBlobs();
             for (HashMap.Entry<String, String> pair : lcaBlobs.entrySet()) {
                 String file = pair.getKey();
                 String hash = pair.getValue();
-                if (currentBlobs.containsValue(hash) || otherBlobs.containsValue(hash)) {
-                    if (!otherBlobs.containsValue(hash)) {
+                if (hash.equals(currentBlobs.get(file)) || hash.equals(otherBlobs.get(file))) {
+                    if (!hash.equals(otherBlobs.get(file))) {
                         if (otherBlobs.containsKey(file)) {
                             doCheckout(other.getId(), file);
                             add(file);
@@ -451,12 +608,8 @@ public class Repository {
                             remove(file);
                         }
                     }
-                } else {
-                    boolean fileExists = Merge.conflict(current, other, file);
-                    if (fileExists) {
-                        hadConflict = true;
-                        add(file);
-                    }
+                } else if (Merge.mergeFile(lca, current, other, file)) {
+                    hadConflict = true;
                 }
             }
 
@@ -465,12 +618,8 @@ public class Repository {
                 if (!lcaBlobs.containsKey(file)) {
                     if (!currentBlobs.containsKey(file)) {
                         doCheckout(other.getId(), file);
-                    } else {
-                        boolean fileExists = Merge.conflict(current, other, file);
-                        if (fileExists) {
-                            hadConflict = true;
-                            add(file);
-                        }
+                    } else if (Merge.mergeFile(null, current, other, file)) {
+                        hadConflict = true;
                     }
                     add(file);
                 }
@@ -0,0 +1,231 @@
+package gitlet;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * The staging area of a repository
+ * Holds the changes for the next commit in .gitlet/stage: for each path either the mode
+ * and id of the blob staged for it, or a removal. add stores the blob right away, so
+ * commit builds the tree from the ids here and never reads a staged file again.
+ *
+ * The file is the magic number, the version and the number of entries, then per entry
+ * (sorted by path) the path, the mode (REMOVED for a removal) and the 20 byte blob id.
+ * It is rewritten as a whole and renamed into place, so it is never seen half written.
+ * Repositories of older versions staged copies of files in .gitlet/staging and
+ * .gitlet/remove; those are folded into the stage the first time it is read.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Stage {
+
+    static final String STAGE_FILE = "stage";
+    private static final int MAGIC = 0x47535447;
+    private static final int VERSION = 1;
+    /**
+     * Modes of an entry, as in git
+     */
+    static final int REMOVED = 0;
+    static final int REGULAR = 0100644;
+    static final int EXECUTABLE = 0100755;
+
+    private final File gitDir;
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    private Stage(File gitDir) {
+        this.gitDir = gitDir;
+    }
+
+    public static Stage read(File gitDir) {
+        Stage stage = new Stage(gitDir);
+        File file = join(gitDir, STAGE_FILE);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw error("Corrupt stage.");
+                }
+                int count = in.readInt();
+                byte[] id = new byte[20];
+                for (int i = 0; i < count; i += 1) {
+                    String path = in.readUTF();
+                    int mode = in.readInt();
+                    in.readFully(id);
+                    stage.entries.put(path, new Entry(mode,
+                            mode == REMOVED ? null : Pack.toHex(id)));
+                }
+            } catch (IOException io) {
+                throw error("io error");
+            }
+        }
+        stage.importFolders();
+        return stage;
+    }
+
+    //* moves whatever an older version left in .gitlet/staging and .gitlet/remove into
+    // the stage and deletes the folders/
+    private void importFolders() {
+        File staging = join(gitDir, "staging");
+        File removal = join(gitDir, "remove");
+        if (!staging.isDirectory() && !removal.isDirectory()) {
+            return;
+        }
+        Commit c = Commit.getCommit(Repository.head);
+        for (String path : Repository.filesIn(staging)) {
+            File f = join(staging, path);
+            add(path, modeOf(f), Blobs.saveBlob(f, c.getBlobs().get(path)));
+        }
+        for (String path : Repository.filesIn(removal)) {
+            if (!entries.containsKey(path)) {
+                remove(path);
+            }
+        }
+        deleteTree(staging);
+        deleteTree(removal);
+        write();
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+
+    static int modeOf(File f) {
+        return Files.isExecutable(f.toPath()) ? EXECUTABLE : REGULAR;
+    }
+
+    //* stages the blob for the path, replacing a removal/
+    public void add(String path, int mode, String blob) {
+        entries.put(path, new Entry(mode, blob));
+    }
+
+    //* stages the removal of the path/
+    public void remove(String path) {
+        entries.put(path, new Entry(REMOVED, null));
+    }
+
+    //* drops whatever is staged for the path. Returns false if nothing was/
+    public boolean unstage(String path) {
+        return entries.remove(path) != null;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    //* the blob staged for the path, or null if none is/
+    public String blob(String path) {
+        Entry e = entries.get(path);
+        return e == null ? null : e.blob;
+    }
+
+    //* the mode staged for the path, or REMOVED if nothing is/
+    public int mode(String path) {
+        Entry e = entries.get(path);
+        return e == null ? REMOVED : e.mode;
+    }
+
+    //* the paths with a staged blob, sorted/
+    public List<String> staged() {
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, Entry> pair : entries.entrySet()) {
+            if (pair.getValue().mode != REMOVED) {
+                paths.add(pair.getKey());
+            }
+        }
+        return paths;
+    }
+
+    //* the paths staged for removal, sorted/
+    public List<String> removed() {
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, Entry> pair : entries.entrySet()) {
+            if (pair.getValue().mode == REMOVED) {
+                paths.add(pair.getKey());
+            }
+        }
+        return paths;
+    }
+
+    //* every staged change as path -> blob id, or null for a removal, as Tree.update
+    // takes them/
+    public TreeMap<String, String> changes() {
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (Map.Entry<String, Entry> pair : entries.entrySet()) {
+            changes.put(pair.getKey(), pair.getValue().blob);
+        }
+        return changes;
+    }
+
+    //* the mode of every staged blob as path -> mode, as Tree.update takes them/
+    public TreeMap<String, Integer> modes() {
+        TreeMap<String, Integer> modes = new TreeMap<>();
+        for (Map.Entry<String, Entry> pair : entries.entrySet()) {
+            if (pair.getValue().mode != REMOVED) {
+                modes.put(pair.getKey(), pair.getValue().mode);
+            }
+        }
+        return modes;
+    }
+
+    //* writes the stage to .gitlet/stage, replacing it atomically/
+    public void write() {
+        File temp = join(gitDir, STAGE_FILE + ".lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> pair : entries.entrySet()) {
+                Entry e = pair.getValue();
+                out.writeUTF(pair.getKey());
+                out.writeInt(e.mode);
+                out.write(e.blob == null ? new byte[20] : Pack.toBytes(e.blob));
+            }
+        } catch (IOException io) {
+            System.out.println("io error");
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), join(gitDir, STAGE_FILE).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+    }
+
+    private static class Entry {
+        private final int mode;
+        private final String blob;
+
+        Entry(int mode, String blob) {
+            this.mode = mode;
+            this.blob = blob;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package gitlet;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * Remembers the blob hash of files by their stat information
+ * Keeps (path, size, mtime, inode, blob hash) for each file in .gitlet/index, like git's
+ * index, so a file whose stat did not change since it was last hashed is not read again.
+ * Files modified within the last couple of seconds are never cached, because a second
+ * change in the same timestamp tick would otherwise go unnoticed.
+ *
+ * The cache holds at most index.maxEntries files (MAX_ENTRIES by default), dropping the
+ * least recently hashed, so a daemon that lives through many commands does not grow
+ * without bound. A daemon also drops it when another process rewrote the index.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class StatCache {
+
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "index");
+    private static final int MAGIC = 0x47535443;
+    private static final int VERSION = 1;
+    /**
+     * How recent (in ms) a modification must be for the file to count as racily clean
+     */
+    private static final long RACY_WINDOW = 2000;
+    static final String MAX_ENTRIES_KEY = "index.maxEntries";
+    private static final int MAX_ENTRIES = 1 << 18;
+
+    private static Map<String, Entry> entries;
+    private static volatile boolean dirty;
+    /**
+     * Modification time and size of the index when it was last read or written here
+     */
+    private static long indexTime;
+    private static long indexSize;
+
+    //* returns the blob hash of the file, hashing it only if its stat changed/
+    public static String hash(File f) {
+        String path = pathOf(f);
+        Entry stat = stat(f);
+        Entry cached = load().get(path);
+        if (stat != null && cached != null && cached.sameStat(stat)) {
+            return cached.hash;
+        }
+        String hash = Blobs.hashBlob(f);
+        if (stat != null && stat.mtime + TimeUnit.MILLISECONDS.toNanos(RACY_WINDOW)
+                < TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())) {
+            entries.put(path, new Entry(stat.size, stat.mtime, stat.inode, hash));
+            dirty = true;
+        } else if (cached != null) {
+            entries.remove(path);
+            dirty = true;
+        }
+        return hash;
+    }
+
+    private static String pathOf(File f) {
+        return Repository.CWD.toPath().relativize(f.toPath().toAbsolutePath()).toString();
+    }
+
+    private static Entry stat(File f) {
+        Path p = f.toPath();
+        try {
+            Map<String, Object> attrs = Files.readAttributes(p, "unix:size,lastModifiedTime,ino");
+            return new Entry((Long) attrs.get("size"),
+                    ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                    (Long) attrs.get("ino"), null);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                return new Entry(attrs.size(),
+                        attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0, null);
+            } catch (IOException io) {
+                return null;
+            }
+        } catch (IOException io) {
+            return null;
+        }
+    }
+
+    private static synchronized Map<String, Entry> load() {
+        if (entries != null) {
+            return entries;
+        }
+        int maxEntries = Math.max(1, Config.getInt(MAX_ENTRIES_KEY, MAX_ENTRIES));
+        entries = Collections.synchronizedMap(new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        indexTime = INDEX_FILE.lastModified();
+        indexSize = INDEX_FILE.length();
+        if (!INDEX_FILE.exists()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != Config.getInt(Config.HASH_FORMAT, Blobs.LEGACY_HASH)) {
+                return entries;
+            }
+            int count = in.readInt();
+            byte[] hash = new byte[20];
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                in.readFully(hash);
+                entries.put(path, new Entry(size, mtime, inode, Pack.toHex(hash)));
+            }
+        } catch (IOException io) {
+            entries.clear();
+        }
+        return entries;
+    }
+
+    //* drops the cache if another process rewrote .gitlet/index since it was read or
+    // written here, so the next hash reads it again/
+    static synchronized void refresh() {
+        if (entries != null && (INDEX_FILE.lastModified() != indexTime
+                || INDEX_FILE.length() != indexSize)) {
+            entries = null;
+            dirty = false;
+        }
+    }
+
+    //* writes the cache back to .gitlet/index if anything changed, replacing it atomically/
+    public static synchronized void save() {
+        if (!dirty || !Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        File temp = join(Repository.GITLET_DIR, "index.lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(Config.getInt(Config.HASH_FORMAT, Blobs.LEGACY_HASH));
+            synchronized (entries) {
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> pair : entries.entrySet()) {
+                    Entry e = pair.getValue();
+                    out.writeUTF(pair.getKey());
+                    out.writeLong(e.size);
+                    out.writeLong(e.mtime);
+                    out.writeLong(e.inode);
+                    out.write(Pack.toBytes(e.hash));
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("io error");
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+            indexTime = INDEX_FILE.lastModified();
+            indexSize = INDEX_FILE.length();
+        } catch (IOException io) {
+            System.out.println("io error");
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long mtime;
+        private final long inode;
+        private final String hash;
+
+        Entry(long size, long mtime, long inode, String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hash = hash;
+        }
+
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+}
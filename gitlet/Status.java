@@ -0,0 +1,171 @@
+package gitlet;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Computes the status of the repository
+ * Takes one snapshot of the branches, the staging and removal areas, the head commit
+ * and the working directory, hashes every file that needs comparing on a fork-join
+ * pool, and prints all five sections from that snapshot.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Status {
+
+    /**
+     * Number of threads used to hash files (defaults to one per core)
+     */
+    static final String PARALLELISM = "status.parallelism";
+    /**
+     * Files per fork-join task before it stops splitting
+     */
+    private static final int THRESHOLD = 16;
+
+    private final String activeBranch;
+    private final List<String> branches;
+    private final Stage stage;
+    private final List<String> staged;
+    private final HashSet<String> stagedSet;
+    private final List<String> removed;
+    private final HashSet<String> removedSet;
+    private final Commit headCommit;
+    private final Map<String, String> commitFiles;
+    private final List<String> workingFiles;
+    private final HashMap<File, String> hashes = new HashMap<>();
+
+    public Status() {
+        activeBranch = Core.getActiveBranch();
+        branches = plainFilenamesIn(BRANCHES_FOLDER);
+        stage = Stage.read(GITLET_DIR);
+        staged = stage.staged();
+        stagedSet = new HashSet<>(staged);
+        removed = stage.removed();
+        removedSet = new HashSet<>(removed);
+        headCommit = Commit.getCommit(head);
+        commitFiles = headCommit.getBlobs();
+        workingFiles = filesIn(CWD);
+    }
+
+    public static int parallelism() {
+        int threads = Config.getInt(PARALLELISM, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, threads);
+    }
+
+    //* hashes every tracked or staged file that exists in the working directory/
+    private void hashCandidates(int threads) {
+        HashSet<String> present = new HashSet<>(workingFiles);
+        List<File> candidates = new ArrayList<>();
+        for (String file : commitFiles.keySet()) {
+            if (present.contains(file)) {
+                candidates.add(join(CWD, file));
+            }
+        }
+        for (String file : staged) {
+            if (present.contains(file) && !commitFiles.containsKey(file)) {
+                candidates.add(join(CWD, file));
+            }
+        }
+        File[] files = candidates.toArray(new File[0]);
+        String[] results = new String[files.length];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new HashTask(files, results, 0, files.length));
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < files.length; i += 1) {
+            hashes.put(files[i], results[i]);
+        }
+    }
+
+    private static class HashTask extends RecursiveAction {
+        private final File[] files;
+        private final String[] results;
+        private final int lo;
+        private final int hi;
+
+        HashTask(File[] files, String[] results, int lo, int hi) {
+            this.files = files;
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                for (int i = lo; i < hi; i += 1) {
+                    results[i] = StatCache.hash(files[i]);
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new HashTask(files, results, lo, mid),
+                        new HashTask(files, results, mid, hi));
+            }
+        }
+    }
+
+    public void print(int threads) {
+        hashCandidates(threads);
+        StringBuilder out = new StringBuilder();
+        out.append("=== Branches ===\n");
+        for (String file : branches) {
+            if (activeBranch.equals(file)) {
+                out.append("*");
+            }
+            out.append(file.replace("%", "/")).append("\n");
+        }
+        out.append("\n=== Staged Files ===\n");
+        for (String file : staged) {
+            out.append(file).append("\n");
+        }
+        out.append("\n=== Removed Files ===\n");
+        for (String file : removed) {
+            out.append(file).append("\n");
+        }
+        out.append("\n=== Modifications Not Staged For Commit ===\n");
+        for (HashMap.Entry<String, String> pair : commitFiles.entrySet()) {
+            String file = pair.getKey();
+            File f = join(CWD, file);
+            String fileHash = hashes.get(f);
+            if (fileHash != null) {
+                if (!pair.getValue().equals(fileHash)
+                        || Stage.modeOf(f) != headCommit.modeOf(file)) {
+                    out.append(file).append(" (modified)\n");
+                }
+            } else if (!removedSet.contains(file)) {
+                out.append(file).append(" (deleted)\n");
+            }
+        }
+        for (String file : staged) {
+            File f = join(CWD, file);
+            String fileHash = hashes.get(f);
+            if (fileHash != null) {
+                if (!stage.blob(file).equals(fileHash) || Stage.modeOf(f) != stage.mode(file)) {
+                    out.append(file).append(" (modified)\n");
+                }
+            } else {
+                out.append(file).append(" (deleted)\n");
+            }
+        }
+        out.append("\n=== Untracked Files ===\n");
+        for (String file : workingFiles) {
+            if (!commitFiles.containsKey(file) && !stagedSet.contains(file)) {
+                out.append(file).append("\n");
+            }
+        }
+        System.out.print(out);
+    }
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a directory of a commit
+ * A tree maps the names in one directory to blob ids and to the ids of child trees.
+ * Trees are content-addressed (the id is the hash of the encoding below), so a
+ * directory that did not change between two commits is the same object and
+ * building, diffing and checking out commits can skip it entirely.
+ *
+ * Encoding: one line per entry, "blob ID NAME" then "tree ID NAME", each sorted by name.
+ * An executable file is "blob 100755 ID NAME"; a regular file has no mode, so trees
+ * written before modes were recorded read as all regular files and keep their ids.
+ *
+ * @author Medhaav Chandra Mahesh
+ *
+ */
+public class Tree {
+
+    static final File TREES_FOLDER = join(Repository.GITLET_DIR, ObjectStore.TREES);
+
+    /**
+     * Blob ids of the files in this directory, by file name
+     */
+    private final TreeMap<String, String> blobs = new TreeMap<>();
+    /**
+     * Tree ids of the subdirectories, by directory name
+     */
+    private final TreeMap<String, String> trees = new TreeMap<>();
+    /**
+     * Modes of the files that are not regular files, by file name
+     */
+    private final TreeMap<String, Integer> modes = new TreeMap<>();
+
+    public static Tree read(File gitDir, String id) {
+        byte[] contents = ObjectStore.read(gitDir, ObjectStore.TREES, id);
+        if (contents == null) {
+            throw error("Missing tree %s.", id);
+        }
+        Tree tree = new Tree();
+        String text = new String(contents, StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            String line = text.substring(start, end);
+            if (line.startsWith("blob ")) {
+                // an id never has a space in it, so a space there ends a mode
+                int at = line.charAt(11) == ' ' ? 12 : 5;
+                String name = line.substring(at + 41);
+                tree.blobs.put(name, line.substring(at, at + 40));
+                if (at == 12) {
+                    tree.modes.put(name, Integer.parseInt(line.substring(5, 11), 8));
+                }
+            } else {
+                tree.trees.put(line.substring(46), line.substring(5, 45));
+            }
+            start = end + 1;
+        }
+        return tree;
+    }
+
+    private byte[] encode() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> pair : blobs.entrySet()) {
+            text.append("blob ");
+            Integer mode = modes.get(pair.getKey());
+            if (mode != null) {
+                text.append(Integer.toOctalString(mode)).append(' ');
+            }
+            text.append(pair.getValue()).append(' ').append(pair.getKey()).append('\n');
+        }
+        for (Map.Entry<String, String> pair : trees.entrySet()) {
+            text.append("tree ").append(pair.getValue()).append(' ')
+                    .append(pair.getKey()).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    //* stores the tree in the local repository if it is not there yet and returns its id/
+    public String save() {
+        return save(Repository.GITLET_DIR);
+    }
+
+    String save(File gitDir) {
+        byte[] contents = encode();
+        String id = sha1(contents);
+        if (!ObjectStore.contains(gitDir, ObjectStore.TREES, id)) {
+            ObjectStore.write(gitDir, ObjectStore.TREES, id, contents);
+        }
+        return id;
+    }
+
+    public boolean isEmpty() {
+        return blobs.isEmpty() && trees.isEmpty();
+    }
+
+    public TreeMap<String, String> getBlobs() {
+        return blobs;
+    }
+
+    public TreeMap<String, String> getTrees() {
+        return trees;
+    }
+
+    //* returns every file below the tree as path -> blob id/
+    public static HashMap<String, String> flatten(File gitDir, String id) {
+        HashMap<String, String> files = new HashMap<>();
+        flatten(gitDir, id, "", files, new HashSet<>());
+        return files;
+    }
+
+    //* adds every file below the tree to files as path -> blob id, and the path of every
+    // executable one to executables/
+    static void flatten(File gitDir, String id, Map<String, String> files,
+                        Set<String> executables) {
+        flatten(gitDir, id, "", files, executables);
+    }
+
+    private static void flatten(File gitDir, String id, String prefix,
+                                Map<String, String> files, Set<String> executables) {
+        Tree tree = read(gitDir, id);
+        for (Map.Entry<String, String> pair : tree.blobs.entrySet()) {
+            files.put(prefix + pair.getKey(), pair.getValue());
+        }
+        for (String name : tree.modes.keySet()) {
+            executables.add(prefix + name);
+        }
+        for (Map.Entry<String, String> pair : tree.trees.entrySet()) {
+            flatten(gitDir, pair.getValue(), prefix + pair.getKey() + "/", files, executables);
+        }
+    }
+
+    //* applies the changes (path -> new blob id, or null to remove the path) to the tree
+    // with that id and returns the id of the new tree. Only the directories on a changed
+    // path are rebuilt; every other subtree keeps its id/
+    public static String update(String id, Map<String, String> changes) {
+        return update(id, changes, new HashMap<>());
+    }
+
+    //* same, with the mode of each changed file in modes (path -> mode); a changed path
+    // that is not there is a regular file/
+    public static String update(String id, Map<String, String> changes,
+                                Map<String, Integer> modes) {
+        return apply(id, changes, modes, "").save();
+    }
+
+    private static Tree apply(String id, Map<String, String> changes,
+                              Map<String, Integer> modes, String prefix) {
+        Tree tree = id == null ? new Tree() : read(Repository.GITLET_DIR, id);
+        TreeMap<String, TreeMap<String, String>> byDirectory = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree.modes.remove(path);
+                if (change.getValue() == null) {
+                    tree.blobs.remove(path);
+                } else {
+                    tree.blobs.put(path, change.getValue());
+                    int mode = modes.getOrDefault(prefix + path, Stage.REGULAR);
+                    if (mode != Stage.REGULAR) {
+                        tree.modes.put(path, mode);
+                    }
+                }
+            } else {
+                byDirectory.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir : byDirectory.entrySet()) {
+            Tree child = apply(tree.trees.get(dir.getKey()), dir.getValue(), modes,
+                    prefix + dir.getKey() + "/");
+            if (child.isEmpty()) {
+                tree.trees.remove(dir.getKey());
+            } else {
+                tree.trees.put(dir.getKey(), child.save());
+            }
+        }
+        return tree;
+    }
+
+    //* returns the tree id of the commit, building one from its blob map if it is
+    // an older commit that only has the flat map/
+    public static String of(Commit c) {
+        if (c.getTree() != null) {
+            return c.getTree();
+        }
+        return update(null, c.getBlobs());
+    }
+
+    //* returns every path whose blob or mode differs between the two commits as
+    // path -> {old blob, new blob}, with null for a side that does not have the path.
+    // Subtrees with the same id on both sides are not read at all/
+    public static TreeMap<String, String[]> diff(Commit from, Commit to) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        if (from.getTree() != null && to.getTree() != null) {
+            diff(from.getTree(), to.getTree(), "", changes);
+        } else {
+            Map<String, String> fromBlobs = from.getBlobs();
+            Map<String, String> toBlobs = to.getBlobs();
+            for (Map.Entry<String, String> pair : toBlobs.entrySet()) {
+                if (!pair.getValue().equals(fromBlobs.get(pair.getKey()))) {
+                    changes.put(pair.getKey(),
+                            new String[]{fromBlobs.get(pair.getKey()), pair.getValue()});
+                }
+            }
+            for (Map.Entry<String, String> pair : fromBlobs.entrySet()) {
+                if (!toBlobs.containsKey(pair.getKey())) {
+                    changes.put(pair.getKey(), new String[]{pair.getValue(), null});
+                }
+            }
+        }
+        return changes;
+    }
+
+    private static void diff(String fromId, String toId, String prefix,
+                             TreeMap<String, String[]> changes) {
+        if (fromId != null && fromId.equals(toId)) {
+            return;
+        }
+        Tree from = fromId == null ? new Tree() : read(Repository.GITLET_DIR, fromId);
+        Tree to = toId == null ? new Tree() : read(Repository.GITLET_DIR, toId);
+        for (Map.Entry<String, String> pair : to.blobs.entrySet()) {
+            String name = pair.getKey();
+            String old = from.blobs.get(name);
+            if (!pair.getValue().equals(old)
+                    || !Objects.equals(from.modes.get(name), to.modes.get(name))) {
+                changes.put(prefix + pair.getKey(), new String[]{old, pair.getValue()});
+            }
+        }
+        for (Map.Entry<String, String> pair : from.blobs.entrySet()) {
+            if (!to.blobs.containsKey(pair.getKey())) {
+                changes.put(prefix + pair.getKey(), new String[]{pair.getValue(), null});
+            }
+        }
+        for (Map.Entry<String, String> pair : to.trees.entrySet()) {
+            diff(from.trees.get(pair.getKey()), pair.getValue(),
+                    prefix + pair.getKey() + "/", changes);
+        }
+        for (Map.Entry<String, String> pair : from.trees.entrySet()) {
+            if (!to.trees.containsKey(pair.getKey())) {
+                diff(pair.getValue(), null, prefix + pair.getKey() + "/", changes);
+            }
+        }
+    }
+}